@@ -0,0 +1,28 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BenchOptions parses the command line options of the harnesses in bench/.
+ */
+final class BenchOptions {
+    private BenchOptions() {
+    }
+
+    /**
+     * Parses options given as --name=value.
+     *
+     * @param args The command line arguments.
+     * @return The options by name, in the order they are given.
+     */
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Options are given as --name=value: " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+}
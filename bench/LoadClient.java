@@ -0,0 +1,168 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * LoadClient drives a running BookingServer with many concurrent connections and reports the throughput and
+ * round-trip latencies it sees. It first initializes a catalog of Standard voyages over one connection, then every
+ * client sends SELL_TICKET, REFUND_TICKET and PRINT_VOYAGE commands in pipelined batches of --window commands and
+ * reads back the responses of each batch before it sends the next one.
+ * <p>
+ * Usage, from the root of the repository, with the server started as "java -cp out BookingServer 7070":
+ * <pre>
+ * java -cp out LoadClient --port=7070 --clients=256 --commands=20000 --window=32 --voyages=1000
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>--host, --port: the address of the server (localhost, 7070)</li>
+ * <li>--clients: number of concurrent connections (64)</li>
+ * <li>--commands: commands sent by every client (10000)</li>
+ * <li>--window: commands per pipelined batch (32)</li>
+ * <li>--voyages, --rows: size of the catalog initialized before the run (100, 20)</li>
+ * <li>--seed: seed of the command mix (1)</li>
+ * </ul>
+ */
+public class LoadClient {
+    private static final int STANDARD_SEATS_PER_ROW = 4;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = BenchOptions.parse(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "7070"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "64"));
+        int commands = Integer.parseInt(options.getOrDefault("commands", "10000"));
+        int window = Integer.parseInt(options.getOrDefault("window", "32"));
+        int voyages = Integer.parseInt(options.getOrDefault("voyages", "100"));
+        int rows = Integer.parseInt(options.getOrDefault("rows", "20"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+        StringBuilder catalog = new StringBuilder(voyages * 48);
+        for (int id = 0; id < voyages; id++) {
+            catalog.append("INIT_VOYAGE\tStandard\t").append(id).append("\tAnkara\tIstanbul\t").append(rows)
+                    .append("\t350\t10\n");
+        }
+        try (Connection connection = new Connection(host, port)) {
+            connection.send(catalog.toString());
+            connection.receive(voyages);
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        Thread[] threads = new Thread[clients];
+        Throwable[] failure = new Throwable[1];
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            SplittableRandom random = new SplittableRandom(seed + i);
+            threads[i] = new Thread(() -> run(host, port, commands, window, voyages, rows * STANDARD_SEATS_PER_ROW,
+                    random, latencies), "load-client-" + i);
+            threads[i].setUncaughtExceptionHandler((thread, e) -> failure[0] = e);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        if (failure[0] != null) {
+            throw new IllegalStateException("A client failed", failure[0]);
+        }
+        long total = (long) clients * commands;
+        System.out.printf(Locale.ROOT, "%d clients, %d commands in %.2f s: %.0f commands/s%n", clients, total,
+                nanos / 1e9, total / (nanos / 1e9));
+        System.out.printf(Locale.ROOT, "batch of %d round trip: p50=%.1f us p99=%.1f us p999=%.1f us max=%.1f us%n",
+                window, latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3,
+                latencies.percentile(0.999) / 1e3, latencies.max() / 1e3);
+    }
+
+    /**
+     * Runs one client: sends its commands in batches and waits for the responses of each batch.
+     */
+    private static void run(String host, int port, int commands, int window, int voyages, int seats,
+                            SplittableRandom random, LatencyHistogram latencies) {
+        StringBuilder batch = new StringBuilder(window * 32);
+        try (Connection connection = new Connection(host, port)) {
+            for (int sent = 0; sent < commands; sent += window) {
+                int size = Math.min(window, commands - sent);
+                batch.setLength(0);
+                for (int i = 0; i < size; i++) {
+                    int voyage = random.nextInt(voyages);
+                    int kind = random.nextInt(10);
+                    if (kind < 6) {
+                        batch.append("SELL_TICKET\t").append(voyage).append('\t').append(1 + random.nextInt(seats));
+                    } else if (kind < 9) {
+                        batch.append("REFUND_TICKET\t").append(voyage).append('\t').append(1 + random.nextInt(seats));
+                    } else {
+                        batch.append("PRINT_VOYAGE\t").append(voyage);
+                    }
+                    batch.append('\n');
+                }
+                long start = System.nanoTime();
+                connection.send(batch.toString());
+                connection.receive(size);
+                latencies.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Connection is one client connection speaking the line protocol of BookingServer.
+     */
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader in;
+
+        Connection(String host, int port) {
+            try {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                out = socket.getOutputStream();
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot connect to " + host + ":" + port, e);
+            }
+        }
+
+        void send(String commands) {
+            try {
+                out.write(commands.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Reads the given number of responses, each one ending with an empty line.
+         */
+        void receive(int responses) {
+            try {
+                for (int received = 0; received < responses; ) {
+                    String line = in.readLine();
+                    if (line == null) {
+                        throw new IOException("The server closed the connection");
+                    }
+                    if (line.isEmpty()) {
+                        received++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * SeatContentionStress checks that the lock-free seat store never sells a seat twice. Many threads hammer one
+ * voyage backed by an AtomicSeatMap with overlapping multi-seat sales and refunds through a shared BoxOffice. Each
+ * thread captures the output of its own commands, so it knows which of them succeeded. At the end the harness
+ * compares what the clients were told with the state of the voyage:
+ * <ul>
+ * <li>every seat has been sold at most once more than it has been refunded, and its bit is set exactly when it
+ * has been sold once more,</li>
+ * <li>the seats sold by the successful commands equal the seats sold counter of the voyage,</li>
+ * <li>their prices equal the sold value of the voyage,</li>
+ * <li>the amounts charged and refunded equal the gross sales, refunds paid and revenue of the voyage, and the net
+ * revenue of the box office.</li>
+ * </ul>
+ * The default voyage has 90 seats, so the seats of a command often span two words of the seat map and the sales
+ * and refunds within one word run lock-free beside the ones under the voyage lock. A voyage of 64 seats or fewer
+ * only ever takes the lock-free path. Every round is run once for each of --seeds consecutive seeds.
+ * <p>
+ * With --cancels, it runs that many rounds on a fresh voyage instead, each cancelled while the threads are still
+ * selling and refunding. The cancellation must then pay back exactly the seats the clients were told they bought,
+ * so the revenue of the voyage and the net revenue of the box office are the amounts charged less the sold value.
+ * <p>
+ * It exits with status 1 at the first broken invariant.
+ * <p>
+ * Usage, from the root of the repository:
+ * <pre>
+ * java -cp out SeatContentionStress --threads=8 --rows=30 --operations=100000 --seats=4 --seeds=5
+ * java -cp out SeatContentionStress --threads=8 --rows=30 --operations=2000 --cancels=1000
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>--threads: threads selling and refunding at once (8)</li>
+ * <li>--rows: rows of the Premium voyage, three seats each, fewer rows mean more contention (30)</li>
+ * <li>--operations: sales and refunds per thread (100000)</li>
+ * <li>--seats: the largest number of distinct seats in one command (4)</li>
+ * <li>--seed: seed of the operation mix (1)</li>
+ * <li>--seeds: number of consecutive seeds run from --seed, each in a round of its own (5)</li>
+ * <li>--cancels: rounds ending in a cancellation of the voyage, 0 for a single round without one (0)</li>
+ * </ul>
+ */
+public class SeatContentionStress {
+    private static final int VOYAGE_ID = 1;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = BenchOptions.parse(args);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int rows = Integer.parseInt(options.getOrDefault("rows", "30"));
+        int operations = Integer.parseInt(options.getOrDefault("operations", "100000"));
+        int maxSeats = Integer.parseInt(options.getOrDefault("seats", "4"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int seeds = Integer.parseInt(options.getOrDefault("seeds", "5"));
+        int cancels = Integer.parseInt(options.getOrDefault("cancels", "0"));
+        int numberOfSeats = rows * 3;
+        if (threads <= 0 || rows <= 0 || operations <= 0 || seeds <= 0 || maxSeats <= 0 || maxSeats > numberOfSeats
+                || cancels < 0) {
+            throw new IllegalArgumentException("Threads, rows, operations and seeds must be positive, and seats between"
+                    + " 1 and " + numberOfSeats);
+        }
+        if (cancels == 0) {
+            for (int i = 0; i < seeds; i++) {
+                round(threads, rows, operations, maxSeats, seed + i, false);
+            }
+            return;
+        }
+        SplittableRandom roundSeeds = new SplittableRandom(seed);
+        for (int i = 0; i < cancels; i++) {
+            round(threads, rows, operations, maxSeats, roundSeeds.nextLong(), true);
+        }
+        System.out.println("OK " + cancels + " cancelled rounds");
+    }
+
+    /**
+     * Runs the threads against a new voyage and checks the invariants once they are done.
+     *
+     * @param cancel True to cancel the voyage while the threads run.
+     */
+    private static void round(int threads, int rows, int operations, int maxSeats, long seed, boolean cancel)
+            throws InterruptedException {
+        int numberOfSeats = rows * 3;
+        VoyageRegistry voyages = new VoyageRegistry();
+        Voyage voyage = new Premium(VOYAGE_ID, "Ankara", "İzmir", 100.10f, rows, 10, 33,
+                new AtomicSeatMap(numberOfSeats));
+        voyages.add(voyage);
+        BoxOffice boxOffice = new BoxOffice();
+        Worker[] workers = new Worker[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] running = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(boxOffice, voyages, voyage, new SplittableRandom(seed + t), operations, maxSeats,
+                    start);
+            running[t] = new Thread(workers[t], "stress-" + t);
+            running[t].start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        if (cancel) {
+            //Lets the threads get going, so the cancellation lands among their sales and refunds.
+            long spins = new SplittableRandom(seed).nextLong(1, 100_000);
+            while (--spins > 0) {
+                Thread.onSpinWait();
+            }
+            FileOutput.beginCapture();
+            boxOffice.cancelVoyage(voyages, VOYAGE_ID);
+            FileOutput.endCapture();
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - startNanos;
+
+        long[] net = new long[numberOfSeats + 1];
+        long sales = 0;
+        long refunds = 0;
+        long charged = 0;
+        long refunded = 0;
+        for (Worker worker : workers) {
+            for (int seat = 1; seat <= numberOfSeats; seat++) {
+                net[seat] += worker.net[seat];
+            }
+            sales += worker.sales;
+            refunds += worker.refunds;
+            charged += worker.charged;
+            refunded += worker.refunded;
+        }
+        SeatMap seatMap = voyage.getSeatMap();
+        long seatsSold = 0;
+        long soldValue = 0;
+        for (int seat = 1; seat <= numberOfSeats; seat++) {
+            if (net[seat] != 0 && net[seat] != 1) {
+                fail("Seat " + seat + " was sold " + net[seat] + " times more than it was refunded");
+            }
+            if (seatMap.isSold(seat) != (net[seat] == 1)) {
+                fail("Seat " + seat + " is " + (seatMap.isSold(seat) ? "sold" : "empty") + " but its net sales are "
+                        + net[seat]);
+            }
+            seatsSold += net[seat];
+            soldValue += net[seat] * voyage.getSeatPrice(seat);
+        }
+        check("seats sold", seatsSold, voyage.getSeatsSold());
+        check("sold seats in the seat map", seatsSold, seatMap.soldCount());
+        check("sold value", soldValue, voyage.getSoldValue());
+        //The cancellation paid back the price of every seat still sold.
+        long revenue = cancel ? charged - soldValue : charged;
+        check("voyage revenue", revenue, voyage.getRevenueMicros());
+        check("voyage refunds paid", cancel ? refunded + soldValue : refunded, voyage.getRefundsPaid());
+        check("voyage gross sales", charged + refunded, voyage.getGrossSales());
+        check("box office net revenue", revenue, boxOffice.getTotals().getNetRevenue());
+        if (cancel) {
+            return;
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "OK seed=%d threads=%d seats=%d operations=%d: %d sales, %d refunds, %d seats sold, %.0f ops/s",
+                seed, threads, numberOfSeats, (long) threads * operations, sales, refunds, seatsSold,
+                (double) threads * operations / (nanos / 1e9)));
+    }
+
+    private static void check(String name, long expected, long actual) {
+        if (expected != actual) {
+            fail("The " + name + " is " + actual + ", the successful commands make it " + expected);
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED: " + message);
+        System.exit(1);
+    }
+
+    /**
+     * Worker sells and refunds random seats, and counts what the successful commands did.
+     */
+    private static final class Worker implements Runnable {
+        private final BoxOffice boxOffice;
+        private final VoyageRegistry voyages;
+        private final Voyage voyage;
+        private final SplittableRandom random;
+        private final int operations;
+        private final int maxSeats;
+        private final CountDownLatch start;
+        private final long[] net; //Successful sales less successful refunds, by seat number.
+        private long sales;
+        private long refunds;
+        private long charged; //Amounts charged less amounts refunded, in millionths of a lira.
+        private long refunded; //Amounts refunded, in millionths of a lira.
+
+        Worker(BoxOffice boxOffice, VoyageRegistry voyages, Voyage voyage, SplittableRandom random, int operations,
+               int maxSeats, CountDownLatch start) {
+            this.boxOffice = boxOffice;
+            this.voyages = voyages;
+            this.voyage = voyage;
+            this.random = random;
+            this.operations = operations;
+            this.maxSeats = maxSeats;
+            this.start = start;
+            this.net = new long[voyage.getSeatMap().size() + 1];
+        }
+
+        @Override
+        public void run() {
+            int numberOfSeats = voyage.getSeatMap().size();
+            int[] seats = new int[maxSeats];
+            StringBuilder text = new StringBuilder();
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (int i = 0; i < operations; i++) {
+                int count = 1 + random.nextInt(maxSeats);
+                text.setLength(0);
+                for (int j = 0; j < count; j++) {
+                    int seat;
+                    do {
+                        seat = 1 + random.nextInt(numberOfSeats);
+                    } while (contains(seats, j, seat));
+                    seats[j] = seat;
+                    text.append(j == 0 ? "" : "_").append(seat);
+                }
+                boolean sell = random.nextBoolean();
+                FileOutput.beginCapture();
+                if (sell) {
+                    boxOffice.sellTicket(voyages, VOYAGE_ID, SeatSelection.of(text.toString()));
+                } else {
+                    boxOffice.refundTicket(voyages, VOYAGE_ID, SeatSelection.of(text.toString()));
+                }
+                String output = new String(FileOutput.endCapture(), StandardCharsets.UTF_8);
+                if (!output.startsWith("Seat ")) {
+                    continue; //An error: the command changed nothing.
+                }
+                for (int j = 0; j < count; j++) {
+                    net[seats[j]] += sell ? 1 : -1;
+                    if (sell) {
+                        charged += voyage.getSeatPrice(seats[j]);
+                    } else {
+                        charged -= voyage.getSeatRefund(seats[j]);
+                        refunded += voyage.getSeatRefund(seats[j]);
+                    }
+                }
+                if (sell) {
+                    sales++;
+                } else {
+                    refunds++;
+                }
+            }
+        }
+
+        private static boolean contains(int[] seats, int count, int seat) {
+            for (int i = 0; i < count; i++) {
+                if (seats[i] == seat) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * StoreBenchmark compares the on-heap voyage table with the off-heap SlabStore. It loads a catalog of voyages into
+ * a registry backed by the chosen store, then runs random single-seat sales and refunds against it, and reports
+ * the heap that the catalog keeps alive, the bytes held off the heap, the collections and their pauses during the
+ * load and the run, and the operations per second.
+ * Every store should be measured in a JVM of its own with the same heap settings, so one run does not inherit the
+ * garbage of the other.
+ * <p>
+ * Usage, from the root of the repository:
+ * <pre>
+ * java -Xmx4g -cp out StoreBenchmark --store=heap --voyages=1000000 --rows=20 --operations=5000000
+ * java -Xmx4g -cp out StoreBenchmark --store=slab --voyages=1000000 --rows=20 --operations=5000000
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>--store: heap or slab (heap)</li>
+ * <li>--voyages, --rows: size of the catalog (1000000, 20)</li>
+ * <li>--operations: sales and refunds run after the load (1000000)</li>
+ * <li>--seed: seed of the operation mix (1)</li>
+ * </ul>
+ */
+public class StoreBenchmark {
+    private static final String[] CITIES = {"Ankara", "İstanbul", "İzmir", "Bursa", "Antalya", "Konya", "Adana", "Trabzon"};
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private static final AtomicLong PAUSES = new AtomicLong();
+    private static final AtomicLong PAUSE_MILLIS = new AtomicLong();
+    private static final AtomicLong MAX_PAUSE_MILLIS = new AtomicLong();
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = BenchOptions.parse(args);
+        String storeName = options.getOrDefault("store", "heap");
+        int voyages = Integer.parseInt(options.getOrDefault("voyages", "1000000"));
+        int rows = Integer.parseInt(options.getOrDefault("rows", "20"));
+        int operations = Integer.parseInt(options.getOrDefault("operations", "1000000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        if (!storeName.equals("heap") && !storeName.equals("slab")) {
+            throw new IllegalArgumentException("Unknown store: " + storeName);
+        }
+        listenToCollections();
+
+        //The output of the commands goes to a scratch file, so the benchmark measures the same writes as a run does.
+        File sink = File.createTempFile("booking-store", ".txt");
+        sink.deleteOnExit();
+        FileOutput.main(new String[]{"", sink.getPath()});
+        FileOutput.writeToFile("", false, false);
+
+        long baseline = settledHeap();
+        SlabStore store = storeName.equals("slab") ? new SlabStore() : null;
+        VoyageRegistry registry = new VoyageRegistry();
+        if (store != null) {
+            registry.setStore(store);
+        }
+        Phase load = new Phase();
+        for (int voyageID = 0; voyageID < voyages; voyageID++) {
+            registry.add(createVoyage(voyageID, rows));
+        }
+        load.stop();
+        long retained = settledHeap() - baseline;
+
+        //Seat 1 to 2 * rows exist in every voyage type, so any of them can be sold and refunded.
+        SeatSelection[] seats = new SeatSelection[rows * 2];
+        for (int i = 0; i < seats.length; i++) {
+            seats[i] = SeatSelection.of(String.valueOf(i + 1));
+        }
+        BoxOffice boxOffice = new BoxOffice();
+        SplittableRandom random = new SplittableRandom(seed);
+        Phase run = new Phase();
+        for (int i = 0; i < operations; i++) {
+            int voyageID = random.nextInt(voyages);
+            SeatSelection seat = seats[random.nextInt(seats.length)];
+            if (random.nextBoolean()) {
+                boxOffice.sellTicket(registry, voyageID, seat);
+            } else {
+                boxOffice.refundTicket(registry, voyageID, seat);
+            }
+        }
+        run.stop();
+        FileOutput.close();
+
+        System.out.println(String.format(Locale.ROOT, "store=%s voyages=%d rows=%d operations=%d",
+                storeName, voyages, rows, operations));
+        System.out.println(String.format(Locale.ROOT, "retained heap    %10.1f MB (%.1f B/voyage)",
+                retained / MEGABYTE, (double) retained / voyages));
+        System.out.println(String.format(Locale.ROOT, "off-heap         %10.1f MB",
+                store == null ? 0 : store.offHeapBytes() / MEGABYTE));
+        System.out.println(load.format("load", voyages));
+        System.out.println(run.format("run", operations));
+        //Keeps the catalog reachable until it has been measured.
+        if (registry.size() != voyages) {
+            throw new IllegalStateException("Expected " + voyages + " voyages, found " + registry.size());
+        }
+    }
+
+    private static Voyage createVoyage(int voyageID, int rows) {
+        String fromWhere = CITIES[voyageID % CITIES.length];
+        String toWhere = CITIES[(voyageID / CITIES.length + 1 + voyageID) % CITIES.length];
+        switch (voyageID % 3) {
+            case 0:
+                return new Standard(voyageID, fromWhere, toWhere, 250.50f, rows, 10);
+            case 1:
+                return new Premium(voyageID, fromWhere, toWhere, 250.50f, rows, 10, 25);
+            default:
+                return new Minibus(voyageID, fromWhere, toWhere, 250.50f, rows);
+        }
+    }
+
+    /**
+     * Returns the heap in use after the garbage has been collected, as far as System.gc can tell.
+     */
+    private static long settledHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    /**
+     * Records the duration of every collection, so the longest pause is known and not only the total time.
+     */
+    private static void listenToCollections() {
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (info.getGcCause().equals("System.gc()")) {
+                return; //The collections asked for by settledHeap are not part of the workload.
+            }
+            long millis = info.getGcInfo().getDuration();
+            PAUSES.incrementAndGet();
+            PAUSE_MILLIS.addAndGet(millis);
+            MAX_PAUSE_MILLIS.accumulateAndGet(millis, Math::max);
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+        }
+    }
+
+    /**
+     * Phase measures the wall time and the collections of one part of the benchmark.
+     */
+    private static final class Phase {
+        private final long startNanos = System.nanoTime();
+        private final long startPauses = PAUSES.get();
+        private final long startPauseMillis = PAUSE_MILLIS.get();
+        private long nanos;
+        private long pauses;
+        private long pauseMillis;
+        private long maxPauseMillis;
+
+        Phase() {
+            MAX_PAUSE_MILLIS.set(0);
+        }
+
+        void stop() {
+            nanos = System.nanoTime() - startNanos;
+            //Notifications arrive on their own thread, a short wait lets the last ones of the phase be counted.
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pauses = PAUSES.get() - startPauses;
+            pauseMillis = PAUSE_MILLIS.get() - startPauseMillis;
+            maxPauseMillis = MAX_PAUSE_MILLIS.get();
+        }
+
+        String format(String name, long operations) {
+            return String.format(Locale.ROOT, "%-16s %10.0f ops/s, %d collections, %d ms paused, longest %d ms",
+                    name, operations / (nanos / 1e9), pauses, pauseMillis, maxPauseMillis);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * WorkloadGenerator writes synthetic command logs in the tab-separated format read by Voyage.inputReader.
+ * The log initializes a catalog of voyages and then sells, refunds, prints and cancels them, with the popularity
+ * of the voyages following a Zipf distribution. A share of the commands is erroneous, and a Z_REPORT is written
+ * at a fixed interval. The same seed always gives the same log.
+ * Lines are written as they are generated and only the seat state of the voyages is held, so the memory used
+ * depends on the catalog and not on the length of the log.
+ * <p>
+ * Usage, from the root of the repository:
+ * <pre>
+ * javac -encoding UTF-8 -d out src/*.java bench/*.java
+ * java -cp out WorkloadGenerator --lines=100000000 --voyages=5000 --out=input.txt
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>--lines: number of command lines (1000000)</li>
+ * <li>--voyages: number of voyages in the catalog (1000)</li>
+ * <li>--mix: weights of Standard, Premium and Minibus voyages (60,30,10)</li>
+ * <li>--rows: largest number of rows of a voyage, each voyage has between 1 and this many (20)</li>
+ * <li>--seats: largest number of seats in a SELL_TICKET or REFUND_TICKET command (4)</li>
+ * <li>--zipf: exponent of the popularity of the voyages, 0 for uniform (1.0)</li>
+ * <li>--errors: share of erroneous commands (0.01)</li>
+ * <li>--report: a Z_REPORT is written every this many lines, 0 for none but the last one (100000)</li>
+ * <li>--seed: seed of the generator (42)</li>
+ * <li>--out: the output file, standard output if not given</li>
+ * </ul>
+ */
+public class WorkloadGenerator {
+    private static final String[] TYPES = {"Standard", "Premium", "Minibus"};
+    private static final int[] SEATS_PER_ROW = {4, 3, 2};
+    private static final String[] CITIES = {"Ankara", "İstanbul", "İzmir", "Bursa", "Antalya", "Konya", "Adana",
+            "Trabzon", "Sinop", "Eskişehir", "Kayseri", "Samsun", "Çanakkale", "Muğla", "Diyarbakır", "Erzurum"};
+    private static final String[] FEES = {"99.90", "150", "199.99", "250.50", "320", "475.25", "799.99"};
+    private static final int STANDARD = 0;
+    private static final int MINIBUS = 2;
+
+    private final long lines;
+    private final int voyages;
+    private final double[] mix;
+    private final int maxRows;
+    private final int maxSeats;
+    private final double errorRate;
+    private final long reportInterval;
+    private final SplittableRandom random;
+    private final double[] popularity;
+    private final int[] voyageOfRank;
+
+    private final int[] types;
+    private final int[] seatCounts;
+    private final int[] soldCounts;
+    private final boolean[] active;
+    private final long[][] soldSeats;
+    private final int[] seatBuffer;
+    private final StringBuilder line = new StringBuilder(128);
+
+    /**
+     * Constructs a WorkloadGenerator.
+     *
+     * @param lines          The number of command lines to write.
+     * @param voyages        The number of voyages in the catalog.
+     * @param mix            The weights of Standard, Premium and Minibus voyages.
+     * @param maxRows        The largest number of rows of a voyage.
+     * @param maxSeats       The largest number of seats in a command.
+     * @param zipfExponent   The exponent of the popularity of the voyages.
+     * @param errorRate      The share of erroneous commands.
+     * @param reportInterval The number of lines between two Z_REPORT commands, 0 for none but the last one.
+     * @param seed           The seed of the generator.
+     */
+    public WorkloadGenerator(long lines, int voyages, double[] mix, int maxRows, int maxSeats, double zipfExponent,
+                             double errorRate, long reportInterval, long seed) {
+        if (lines < 1 || voyages < 1 || maxRows < 1 || maxSeats < 1 || mix.length != TYPES.length) {
+            throw new IllegalArgumentException("Lines, voyages, rows and seats must be positive and the mix needs three weights");
+        }
+        this.lines = lines;
+        this.voyages = voyages;
+        this.mix = cumulative(mix);
+        this.maxRows = maxRows;
+        this.maxSeats = maxSeats;
+        this.errorRate = errorRate;
+        this.reportInterval = reportInterval;
+        this.random = new SplittableRandom(seed);
+        //The weight of rank k is 1 / k^s. The ranks are shuffled over the IDs, so the popular voyages are spread out.
+        double[] weights = new double[voyages];
+        for (int rank = 0; rank < voyages; rank++) {
+            weights[rank] = 1 / Math.pow(rank + 1, zipfExponent);
+        }
+        this.popularity = cumulative(weights);
+        this.voyageOfRank = new int[voyages];
+        for (int i = 0; i < voyages; i++) {
+            voyageOfRank[i] = i + 1;
+        }
+        Random shuffle = new Random(seed);
+        for (int i = voyages - 1; i > 0; i--) {
+            int j = shuffle.nextInt(i + 1);
+            int swap = voyageOfRank[i];
+            voyageOfRank[i] = voyageOfRank[j];
+            voyageOfRank[j] = swap;
+        }
+        this.types = new int[voyages + 1];
+        this.seatCounts = new int[voyages + 1];
+        this.soldCounts = new int[voyages + 1];
+        this.active = new boolean[voyages + 1];
+        this.soldSeats = new long[voyages + 1][];
+        this.seatBuffer = new int[maxSeats];
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = BenchOptions.parse(args);
+        String[] weights = options.getOrDefault("mix", "60,30,10").split(",");
+        double[] mix = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            mix[i] = Double.parseDouble(weights[i]);
+        }
+        WorkloadGenerator generator = new WorkloadGenerator(
+                Long.parseLong(options.getOrDefault("lines", "1000000")),
+                Integer.parseInt(options.getOrDefault("voyages", "1000")),
+                mix,
+                Integer.parseInt(options.getOrDefault("rows", "20")),
+                Integer.parseInt(options.getOrDefault("seats", "4")),
+                Double.parseDouble(options.getOrDefault("zipf", "1.0")),
+                Double.parseDouble(options.getOrDefault("errors", "0.01")),
+                Long.parseLong(options.getOrDefault("report", "100000")),
+                Long.parseLong(options.getOrDefault("seed", "42")));
+        String out = options.get("out");
+        OutputStream stream = out == null ? System.out : new FileOutputStream(out);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16)) {
+            generator.generate(writer);
+        }
+    }
+
+    /**
+     * Writes the whole log. The catalog is initialized first and the log always ends with a Z_REPORT.
+     *
+     * @param writer The writer the lines are written to.
+     * @throws IOException If the writer fails.
+     */
+    public void generate(Writer writer) throws IOException {
+        long written = 0;
+        for (int voyageID = 1; voyageID <= voyages && written < lines - 1; voyageID++) {
+            initVoyage(voyageID);
+            written += emit(writer);
+        }
+        while (written < lines - 1) {
+            if (reportInterval > 0 && (written + 1) % reportInterval == 0) {
+                line.append("Z_REPORT");
+            } else if (random.nextDouble() < errorRate) {
+                erroneousCommand();
+            } else {
+                command();
+            }
+            written += emit(writer);
+        }
+        line.append("Z_REPORT");
+        emit(writer);
+    }
+
+    private int emit(Writer writer) throws IOException {
+        line.append('\n');
+        writer.append(line);
+        line.setLength(0);
+        return 1;
+    }
+
+    /**
+     * Writes a valid command into the line. Sales dominate, followed by prints and refunds; cancelled voyages are
+     * initialized again when they are picked.
+     */
+    private void command() {
+        int voyageID = pickVoyage();
+        if (!active[voyageID]) {
+            initVoyage(voyageID);
+            return;
+        }
+        double kind = random.nextDouble();
+        if (kind < 0.001) {
+            cancelVoyage(voyageID);
+        } else if (kind < 0.15 || soldCounts[voyageID] == seatCounts[voyageID]) {
+            if (!refundTicket(voyageID)) {
+                printVoyage(voyageID);
+            }
+        } else if (kind < 0.30) {
+            printVoyage(voyageID);
+        } else {
+            sellTicket(voyageID);
+        }
+    }
+
+    /**
+     * Writes an erroneous command into the line, one of the mistakes the booking system reports.
+     */
+    private void erroneousCommand() {
+        int voyageID = pickVoyage();
+        switch (random.nextInt(8)) {
+            case 0:
+                line.append("BOOK_TICKET\t").append(voyageID).append("\t1");
+                break;
+            case 1:
+                line.append("SELL_TICKET\t").append(voyageID);
+                break;
+            case 2:
+                line.append("PRINT_VOYAGE\t-").append(voyageID);
+                break;
+            case 3:
+                line.append("SELL_TICKET\t").append(voyages + 1 + random.nextInt(voyages)).append("\t1");
+                break;
+            case 4:
+                line.append("SELL_TICKET\t").append(voyageID).append('\t').append(seatCounts[voyageID] + 1);
+                break;
+            case 5:
+                if (!active[voyageID]) { //Initializing a cancelled voyage again is not an error.
+                    line.append("BOOK_TICKET\t").append(voyageID).append("\t1");
+                    break;
+                }
+                line.append("INIT_VOYAGE\t").append(TYPES[types[voyageID]]).append('\t').append(voyageID)
+                        .append("\tAnkara\tSinop\t5\t100");
+                break;
+            case 6:
+                line.append("CANCEL_VOYAGE\t").append(voyageID).append("\textra");
+                break;
+            default:
+                line.append("Z_REPORT\textra");
+                break;
+        }
+    }
+
+    private void initVoyage(int voyageID) {
+        int type = pickType();
+        int rows = 1 + random.nextInt(maxRows);
+        int numberOfSeats = rows * SEATS_PER_ROW[type];
+        types[voyageID] = type;
+        seatCounts[voyageID] = numberOfSeats;
+        soldCounts[voyageID] = 0;
+        soldSeats[voyageID] = new long[(numberOfSeats + 63) >>> 6];
+        active[voyageID] = true;
+        int from = random.nextInt(CITIES.length);
+        int to = (from + 1 + random.nextInt(CITIES.length - 1)) % CITIES.length;
+        line.append("INIT_VOYAGE\t").append(TYPES[type]).append('\t').append(voyageID).append('\t')
+                .append(CITIES[from]).append('\t').append(CITIES[to]).append('\t').append(rows).append('\t')
+                .append(FEES[random.nextInt(FEES.length)]);
+        if (type != MINIBUS) {
+            line.append('\t').append(5 * random.nextInt(11));
+            if (type != STANDARD) {
+                line.append('\t').append(10 + 5 * random.nextInt(7));
+            }
+        }
+    }
+
+    private void sellTicket(int voyageID) {
+        int count = pickSeats(voyageID, false);
+        line.append("SELL_TICKET\t").append(voyageID).append('\t');
+        appendSeats(count);
+        long[] sold = soldSeats[voyageID];
+        for (int i = 0; i < count; i++) {
+            int index = seatBuffer[i] - 1;
+            sold[index >>> 6] |= 1L << index;
+        }
+        soldCounts[voyageID] += count;
+    }
+
+    private boolean refundTicket(int voyageID) {
+        if (types[voyageID] == MINIBUS || soldCounts[voyageID] == 0) {
+            return false;
+        }
+        int count = pickSeats(voyageID, true);
+        line.append("REFUND_TICKET\t").append(voyageID).append('\t');
+        appendSeats(count);
+        long[] sold = soldSeats[voyageID];
+        for (int i = 0; i < count; i++) {
+            int index = seatBuffer[i] - 1;
+            sold[index >>> 6] &= ~(1L << index);
+        }
+        soldCounts[voyageID] -= count;
+        return true;
+    }
+
+    private void printVoyage(int voyageID) {
+        line.append("PRINT_VOYAGE\t").append(voyageID);
+    }
+
+    private void cancelVoyage(int voyageID) {
+        line.append("CANCEL_VOYAGE\t").append(voyageID);
+        active[voyageID] = false;
+        soldSeats[voyageID] = null;
+    }
+
+    /**
+     * Picks up to maxSeats seats of the voyage that are all free, or all sold, starting from a random seat.
+     *
+     * @return The number of seats picked into the seat buffer, at least one.
+     */
+    private int pickSeats(int voyageID, boolean sold) {
+        int numberOfSeats = seatCounts[voyageID];
+        int available = sold ? soldCounts[voyageID] : numberOfSeats - soldCounts[voyageID];
+        int wanted = Math.min(available, 1 + random.nextInt(maxSeats));
+        long[] seats = soldSeats[voyageID];
+        int start = random.nextInt(numberOfSeats);
+        int count = 0;
+        for (int i = 0; i < numberOfSeats && count < wanted; i++) {
+            int index = (start + i) % numberOfSeats;
+            if (((seats[index >>> 6] & (1L << index)) != 0) == sold) {
+                seatBuffer[count++] = index + 1;
+            }
+        }
+        return count;
+    }
+
+    private void appendSeats(int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                line.append('_');
+            }
+            line.append(seatBuffer[i]);
+        }
+    }
+
+    private int pickVoyage() {
+        return voyageOfRank[search(popularity, random.nextDouble())];
+    }
+
+    private int pickType() {
+        return search(mix, random.nextDouble());
+    }
+
+    /**
+     * Finds the first entry of a cumulative distribution that is greater than the value.
+     */
+    private static int search(double[] cumulative, double value) {
+        int index = Arrays.binarySearch(cumulative, value);
+        index = index < 0 ? -index - 1 : index + 1;
+        return Math.min(index, cumulative.length - 1);
+    }
+
+    /**
+     * Turns weights into a cumulative distribution that ends with 1.
+     */
+    private static double[] cumulative(double[] weights) {
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Weights must not be negative: " + weights[i]);
+            }
+            sum += weights[i];
+            cumulative[i] = sum;
+        }
+        if (sum == 0) {
+            throw new IllegalArgumentException("At least one weight must be positive");
+        }
+        for (int i = 0; i < weights.length; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,274 @@
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import booking.jmh.BookingWorkload;
+
+/**
+ * JmhWorkload runs the commands of the JMH benchmarks against a catalog of voyages. It lives in the default
+ * package beside the booking classes, so it can undo the measured commands through their package-private parts
+ * without allocating.
+ * <p>
+ * Every voyage is sold out in commands of the given number of consecutive seats. The seat selections are built
+ * once and visit the voyages in turn, so consecutive commands land on different voyages as they do in a run.
+ * The output of the commands goes to the null device, so the benchmarks measure the same writes as a run does
+ * without filling a disk.
+ */
+public class JmhWorkload implements BookingWorkload {
+    private static final String NULL_DEVICE =
+            System.getProperty("os.name", "").startsWith("Windows") ? "NUL" : "/dev/null";
+
+    private int catalog;
+    private int rows;
+    private String mix;
+    private int[] selectionVoyages;
+    private SeatSelection[] selections;
+    private int[] refundable; //The indices of the selections of Standard and Premium voyages.
+    private String commandLog;
+    private VoyageRegistry voyages;
+    private BoxOffice boxOffice;
+    private Voyage[] snapshot;
+    private int next; //The next selection, voyage or print of the benchmark.
+    private int last; //The first selection of the last batch.
+    private int lastBatch; //The size of the last batch, 0 if there is nothing to undo.
+    private int cancelled; //The voyage cancelled last, 0 if there is none.
+
+    @Override
+    public void setUp(int catalog, int rows, String mix, int seats, boolean soldOut) {
+        if (catalog < 1 || rows < 1 || seats < 1) {
+            throw new IllegalArgumentException("Catalog, rows and seats must be positive");
+        }
+        this.catalog = catalog;
+        this.rows = rows;
+        this.mix = mix;
+        List<List<SeatSelection>> byVoyage = new ArrayList<>();
+        for (int voyageID = 1; voyageID <= catalog; voyageID++) {
+            String type = typeOf(voyageID);
+            int numberOfSeats = rows * seatsPerRow(type);
+            List<SeatSelection> voyageSelections = new ArrayList<>();
+            for (int first = 1; first <= numberOfSeats; first += seats) {
+                StringBuilder selection = new StringBuilder();
+                for (int seat = first; seat < first + seats && seat <= numberOfSeats; seat++) {
+                    selection.append(seat == first ? "" : "_").append(seat);
+                }
+                voyageSelections.add(SeatSelection.of(selection.toString()));
+            }
+            byVoyage.add(voyageSelections);
+        }
+        //The selections take turns: the first one of every voyage, then the second one of every voyage, and so on.
+        List<Integer> voyageIDs = new ArrayList<>();
+        List<SeatSelection> seatSelections = new ArrayList<>();
+        List<Integer> refundables = new ArrayList<>();
+        for (int round = 0; ; round++) {
+            boolean any = false;
+            for (int voyageID = 1; voyageID <= catalog; voyageID++) {
+                List<SeatSelection> voyageSelections = byVoyage.get(voyageID - 1);
+                if (round >= voyageSelections.size()) {
+                    continue;
+                }
+                any = true;
+                if (!typeOf(voyageID).equals("Minibus")) {
+                    refundables.add(seatSelections.size());
+                }
+                voyageIDs.add(voyageID);
+                seatSelections.add(voyageSelections.get(round));
+            }
+            if (!any) {
+                break;
+            }
+        }
+        selectionVoyages = new int[voyageIDs.size()];
+        selections = seatSelections.toArray(new SeatSelection[0]);
+        refundable = new int[refundables.size()];
+        for (int i = 0; i < selectionVoyages.length; i++) {
+            selectionVoyages[i] = voyageIDs.get(i);
+        }
+        for (int i = 0; i < refundable.length; i++) {
+            refundable[i] = refundables.get(i);
+        }
+        commandLog = buildCommandLog();
+
+        FileOutput.main(new String[]{"", NULL_DEVICE});
+        FileOutput.writeToFile("", false, false);
+        boxOffice = new BoxOffice();
+        voyages = createCatalog(boxOffice);
+        if (soldOut) {
+            for (int i = 0; i < selections.length; i++) {
+                boxOffice.sellTicket(voyages, selectionVoyages[i], selections[i]);
+            }
+        }
+        snapshot = voyages.snapshot();
+    }
+
+    @Override
+    public void sellNext(int batch) {
+        checkBatch(batch, selections.length);
+        int index = next;
+        for (int i = 0; i < batch; i++) {
+            boxOffice.sellTicket(voyages, selectionVoyages[index], selections[index]);
+            index = index + 1 == selections.length ? 0 : index + 1;
+        }
+        last = next;
+        lastBatch = batch;
+        next = index;
+    }
+
+    @Override
+    public void releaseLast() {
+        int index = last;
+        for (int i = 0; i < lastBatch; i++) {
+            Voyage voyage = voyages.get(selectionVoyages[index]);
+            SeatSelection selection = selections[index];
+            voyage.getSeatMap().releaseAll(selection.seats(), selection.count());
+            voyage.countSeats(selection.seats(), selection.count(), -1);
+            voyage.markDirty();
+            index = index + 1 == selections.length ? 0 : index + 1;
+        }
+        lastBatch = 0;
+    }
+
+    @Override
+    public void refundNext(int batch) {
+        if (refundable.length == 0) {
+            throw new IllegalStateException("Minibus tickets are not refundable, the " + mix + " mix has no refunds");
+        }
+        checkBatch(batch, refundable.length);
+        int index = next;
+        for (int i = 0; i < batch; i++) {
+            int selection = refundable[index];
+            boxOffice.refundTicket(voyages, selectionVoyages[selection], selections[selection]);
+            index = index + 1 == refundable.length ? 0 : index + 1;
+        }
+        last = next;
+        lastBatch = batch;
+        next = index;
+    }
+
+    @Override
+    public void resellLast() {
+        int index = last;
+        for (int i = 0; i < lastBatch; i++) {
+            int selection = refundable[index];
+            Voyage voyage = voyages.get(selectionVoyages[selection]);
+            SeatSelection seats = selections[selection];
+            voyage.getSeatMap().claim(seats.seats(), seats.count());
+            voyage.countSeats(seats.seats(), seats.count(), 1);
+            voyage.markDirty();
+            index = index + 1 == refundable.length ? 0 : index + 1;
+        }
+        lastBatch = 0;
+    }
+
+    @Override
+    public void cancelNext() {
+        cancelled = next + 1;
+        next = next + 1 == catalog ? 0 : next + 1;
+        boxOffice.cancelVoyage(voyages, cancelled);
+    }
+
+    @Override
+    public void restoreCancelled() {
+        if (cancelled == 0) {
+            return;
+        }
+        boxOffice.initVoyage(cancelled, "Ankara", "İstanbul", 250.50f, rows, 10, 25, typeOf(cancelled), voyages);
+        Voyage voyage = voyages.get(cancelled);
+        SeatMap seatMap = voyage.getSeatMap();
+        for (int seat = 1; seat <= seatMap.size(); seat++) {
+            seatMap.sell(seat);
+        }
+        voyage.recountSales();
+        cancelled = 0;
+    }
+
+    @Override
+    public void markDirty() {
+        for (Voyage voyage : snapshot) {
+            voyage.markDirty();
+        }
+    }
+
+    @Override
+    public void zReport() {
+        boxOffice.zReport(voyages, false);
+    }
+
+    @Override
+    public void printNext() {
+        Voyage voyage = snapshot[next];
+        next = next + 1 == snapshot.length ? 0 : next + 1;
+        boxOffice.voyagePrinter(voyage.getVoyageID(), voyage);
+    }
+
+    @Override
+    public void replayLog() {
+        CommandReader lines = new CommandReader(new BufferedReader(new StringReader(commandLog)), true, true);
+        new Voyage().inputReader(new BoxOffice(), new VoyageRegistry(), lines);
+    }
+
+    @Override
+    public void tearDown() {
+        FileOutput.close();
+    }
+
+    private static void checkBatch(int batch, int selections) {
+        if (batch > selections) {
+            throw new IllegalArgumentException("A batch of " + batch + " commands needs more seats than the "
+                    + selections + " selections of the catalog");
+        }
+    }
+
+    private VoyageRegistry createCatalog(BoxOffice boxOffice) {
+        VoyageRegistry voyages = new VoyageRegistry();
+        for (int voyageID = 1; voyageID <= catalog; voyageID++) {
+            boxOffice.initVoyage(voyageID, "Ankara", "İstanbul", 250.50f, rows, 10, 25, typeOf(voyageID), voyages);
+        }
+        return voyages;
+    }
+
+    /**
+     * Builds the command log that initializes the catalog, sells it out, prints and refunds every voyage and ends
+     * with a report.
+     */
+    private String buildCommandLog() {
+        StringBuilder log = new StringBuilder();
+        for (int voyageID = 1; voyageID <= catalog; voyageID++) {
+            log.append("INIT_VOYAGE\t").append(typeOf(voyageID)).append('\t').append(voyageID)
+                    .append("\tAnkara\tİstanbul\t").append(rows).append("\t250.50\t10\t25\n");
+        }
+        for (int i = 0; i < selections.length; i++) {
+            log.append("SELL_TICKET\t").append(selectionVoyages[i]).append('\t').append(seatText(selections[i])).append('\n');
+        }
+        for (int voyageID = 1; voyageID <= catalog; voyageID++) {
+            log.append("PRINT_VOYAGE\t").append(voyageID).append('\n');
+        }
+        for (int i = 0; i < selections.length; i += 2) {
+            log.append("REFUND_TICKET\t").append(selectionVoyages[i]).append('\t').append(seatText(selections[i])).append('\n');
+        }
+        return log.append("Z_REPORT\n").toString();
+    }
+
+    private String typeOf(int voyageID) {
+        switch (mix) {
+            case "standard":
+                return "Standard";
+            case "premium":
+                return "Premium";
+            case "minibus":
+                return "Minibus";
+            case "mixed":
+                return voyageID % 3 == 0 ? "Minibus" : voyageID % 3 == 1 ? "Standard" : "Premium";
+            default:
+                throw new IllegalArgumentException("Unknown voyage-type mix: " + mix);
+        }
+    }
+
+    private static int seatsPerRow(String type) {
+        return type.equals("Standard") ? 4 : type.equals("Premium") ? 3 : 2;
+    }
+
+    private static String seatText(SeatSelection selection) {
+        return selection.toDashedString().replace('-', '_');
+    }
+}
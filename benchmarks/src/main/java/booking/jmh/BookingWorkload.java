@@ -0,0 +1,84 @@
+package booking.jmh;
+
+/**
+ * BookingWorkload drives the booking system for the benchmarks. The booking classes live in the default package,
+ * which a named package cannot import, so the benchmarks reach them through this interface, implemented by
+ * JmhWorkload in the default package and loaded by name.
+ * <p>
+ * The catalog is built once per trial. Every measured method has a counterpart that puts the catalog back the way
+ * it was, for a setup method of level Invocation to call outside the measured time. Apart from restoreCancelled,
+ * the counterparts allocate nothing, so the gc profiler charges the measured method alone.
+ */
+public interface BookingWorkload {
+
+    /**
+     * Builds the catalog and the commands run against it.
+     *
+     * @param catalog The number of voyages.
+     * @param rows    The rows of every voyage.
+     * @param mix     The voyage types: standard, premium, minibus or mixed.
+     * @param seats   The seats of every SELL_TICKET and REFUND_TICKET command.
+     * @param soldOut True to sell every seat of the catalog before the measurement.
+     */
+    void setUp(int catalog, int rows, String mix, int seats, boolean soldOut);
+
+    /**
+     * Sells the next seat selections, which visit the voyages in turn.
+     *
+     * @param batch The number of SELL_TICKET commands.
+     */
+    void sellNext(int batch);
+
+    /**
+     * Frees the seats sold by the last sellNext.
+     */
+    void releaseLast();
+
+    /**
+     * Refunds the next refundable seat selections, which visit the Standard and Premium voyages in turn.
+     *
+     * @param batch The number of REFUND_TICKET commands.
+     */
+    void refundNext(int batch);
+
+    /**
+     * Sells again the seats refunded by the last refundNext.
+     */
+    void resellLast();
+
+    /**
+     * Cancels the next voyage of the catalog.
+     */
+    void cancelNext();
+
+    /**
+     * Puts the voyage cancelled by the last cancelNext back, sold out as it was. It builds the voyage anew.
+     */
+    void restoreCancelled();
+
+    /**
+     * Marks every voyage as changed, so the next report renders all of them again.
+     */
+    void markDirty();
+
+    /**
+     * Prints the Z report of the catalog.
+     */
+    void zReport();
+
+    /**
+     * Prints the next voyage of the catalog.
+     */
+    void printNext();
+
+    /**
+     * Runs the command log through the input reader on a new registry: it initializes the catalog, sells it out,
+     * prints and refunds every voyage and ends with a Z report.
+     */
+    void replayLog();
+
+    /**
+     * Closes the output of the commands.
+     */
+    void tearDown();
+}
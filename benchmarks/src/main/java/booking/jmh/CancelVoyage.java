@@ -0,0 +1,23 @@
+package booking.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * CancelVoyage measures BoxOffice.cancelVoyage on a sold-out catalog, including the print of the cancelled voyage.
+ * The setup of every invocation builds the voyage cancelled by the previous one anew, and the gc profiler counts
+ * that voyage and its seat map too, so gc.alloc.rate.norm is an upper bound for the cancellation.
+ */
+public class CancelVoyage extends CatalogBenchmark {
+
+    @Setup(Level.Invocation)
+    public void restore() {
+        workload.restoreCancelled();
+    }
+
+    @Benchmark
+    public void cancelVoyage() {
+        workload.cancelNext();
+    }
+}
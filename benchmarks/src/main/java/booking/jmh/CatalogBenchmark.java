@@ -0,0 +1,74 @@
+package booking.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CatalogBenchmark is the state of every benchmark: a catalog of voyages described by the parameters, and the
+ * workload that runs the commands against it. The parameters are set with -p on the command line of JMH.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public abstract class CatalogBenchmark {
+    /**
+     * The number of commands run by one invocation of the sales and refund benchmarks. The setup of every
+     * invocation undoes them, so a batch keeps its cost small beside the commands.
+     */
+    static final int BATCH = 64;
+
+    private static final String WORKLOAD = "JmhWorkload";
+
+    /** The number of voyages. */
+    @Param("100")
+    public int catalog;
+
+    /** The rows of every voyage. */
+    @Param("20")
+    public int rows;
+
+    /** The voyage types: standard, premium, minibus or mixed. */
+    @Param("mixed")
+    public String mix;
+
+    /** The seats of every SELL_TICKET and REFUND_TICKET command. */
+    @Param("1")
+    public int seats;
+
+    protected BookingWorkload workload;
+
+    @Setup(Level.Trial)
+    public void setUpCatalog() throws ReflectiveOperationException {
+        workload = (BookingWorkload) Class.forName(WORKLOAD).getDeclaredConstructor().newInstance();
+        workload.setUp(catalog, rows, mix, seats, soldOut());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownCatalog() {
+        workload.tearDown();
+    }
+
+    /**
+     * Tells whether every seat of the catalog is sold before the measurement.
+     *
+     * @return True unless the benchmark sells the seats itself.
+     */
+    protected boolean soldOut() {
+        return true;
+    }
+}
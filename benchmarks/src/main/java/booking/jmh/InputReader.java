@@ -0,0 +1,20 @@
+package booking.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * InputReader measures Voyage.inputReader end to end on a command log that initializes the catalog, sells it out,
+ * prints and refunds every voyage and ends with a Z report. One operation is the whole log.
+ */
+public class InputReader extends CatalogBenchmark {
+
+    @Override
+    protected boolean soldOut() {
+        return false;
+    }
+
+    @Benchmark
+    public void inputReader() {
+        workload.replayLog();
+    }
+}
@@ -0,0 +1,25 @@
+package booking.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * RefundTicket measures BoxOffice.refundTicket on a sold-out catalog. Minibus tickets are not refundable, so only
+ * the Standard and Premium voyages are refunded, and the minibus mix has nothing to measure. The setup of every
+ * invocation sells the seats refunded by the previous one again.
+ */
+public class RefundTicket extends CatalogBenchmark {
+
+    @Setup(Level.Invocation)
+    public void resell() {
+        workload.resellLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void refundTicket() {
+        workload.refundNext(BATCH);
+    }
+}
@@ -0,0 +1,29 @@
+package booking.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * SellTicket measures BoxOffice.sellTicket on an empty catalog. Every invocation sells the next batch of seat
+ * selections, visiting the voyages in turn, and the setup of the next one frees the seats again.
+ */
+public class SellTicket extends CatalogBenchmark {
+
+    @Override
+    protected boolean soldOut() {
+        return false;
+    }
+
+    @Setup(Level.Invocation)
+    public void release() {
+        workload.releaseLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sellTicket() {
+        workload.sellNext(BATCH);
+    }
+}
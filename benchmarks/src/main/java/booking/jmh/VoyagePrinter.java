@@ -0,0 +1,15 @@
+package booking.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * VoyagePrinter measures BoxOffice.voyagePrinter on a sold-out catalog, printing the voyages in turn. The first
+ * print of a voyage renders it, the next ones print the cached render as repeated prints do.
+ */
+public class VoyagePrinter extends CatalogBenchmark {
+
+    @Benchmark
+    public void voyagePrinter() {
+        workload.printNext();
+    }
+}
@@ -0,0 +1,22 @@
+package booking.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * ZReport measures BoxOffice.zReport on a sold-out catalog. Every report renders every voyage again, as it does
+ * after a day of sales.
+ */
+public class ZReport extends CatalogBenchmark {
+
+    @Setup(Level.Invocation)
+    public void markDirty() {
+        workload.markDirty();
+    }
+
+    @Benchmark
+    public void zReport() {
+        workload.zReport();
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * AsyncOutputStream decouples the writers of the output from the disk. Written bytes are copied into a bounded
+ * ring buffer and a dedicated writer thread drains the ring to the underlying stream in large batches, so a write
+ * returns as soon as its bytes are in memory and only waits when the ring is full, which throttles producers that
+ * outrun the disk. Bytes reach the stream in the order they were written.
+ * flush only asks the writer thread to drain without waiting for it; close drains the ring completely and closes
+ * the stream, so everything written before close is on disk when it returns.
+ */
+public final class AsyncOutputStream extends OutputStream {
+    private static final long LINGER_MILLIS = 10;
+    private static final LatencyHistogram DRAIN_LATENCY = Metrics.histogram("io.drain");
+
+    private final OutputStream out;
+    private final byte[] ring;
+    private final int batchSize;
+    private final Thread writer;
+    private long head; //Total bytes written into the ring.
+    private long tail; //Total bytes drained from the ring.
+    private boolean flushRequested;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Constructs an AsyncOutputStream and starts its writer thread.
+     *
+     * @param out      The stream the ring is drained to, it is only used by the writer thread.
+     * @param capacity The size of the ring in bytes, must be positive.
+     */
+    public AsyncOutputStream(OutputStream out, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+        }
+        this.out = out;
+        this.ring = new byte[capacity];
+        this.batchSize = Math.max(1, capacity / 4);
+        this.writer = new Thread(this::drain, "output-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensureOpen();
+            int free = ring.length - (int) (head - tail);
+            if (free == 0) { //The ring is full, the producer waits for the writer thread.
+                flushRequested = true;
+                notifyAll();
+                awaitChange();
+                continue;
+            }
+            int start = (int) (head % ring.length);
+            int count = Math.min(Math.min(length, free), ring.length - start);
+            System.arraycopy(bytes, offset, ring, start, count);
+            head += count;
+            offset += count;
+            length -= count;
+            if (head - tail >= batchSize) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Asks the writer thread to drain the ring now. It does not wait for the bytes to reach the stream.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        if (head != tail) {
+            flushRequested = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Drains the ring, stops the writer thread and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) { //Shutdown must not lose output, so the drain is always awaited.
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error;
+        synchronized (this) {
+            error = failure;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * The loop of the writer thread: waits for a batch, a flush request or the linger time, then writes every
+     * byte in the ring with at most two writes, as the ring may wrap around.
+     */
+    private void drain() {
+        while (true) {
+            long start;
+            long end;
+            synchronized (this) {
+                while (head - tail < batchSize && !flushRequested && !closed) {
+                    try {
+                        wait(LINGER_MILLIS);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                    if (head != tail) {
+                        break; //Lingered long enough, a partial batch is written.
+                    }
+                }
+                if (head == tail) {
+                    flushRequested = false;
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                start = tail;
+                end = head;
+                flushRequested = false;
+            }
+            long began = Metrics.ENABLED ? System.nanoTime() : 0;
+            try {
+                int from = (int) (start % ring.length);
+                int length = (int) (end - start);
+                int first = Math.min(length, ring.length - from);
+                out.write(ring, from, first);
+                if (first < length) {
+                    out.write(ring, 0, length - first);
+                }
+                out.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    tail = head;
+                    notifyAll();
+                    return;
+                }
+            }
+            if (Metrics.ENABLED) {
+                DRAIN_LATENCY.record(System.nanoTime() - began);
+            }
+            synchronized (this) {
+                tail = end;
+                notifyAll();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("The output stream is closed");
+        }
+    }
+
+    private void awaitChange() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the output writer");
+        }
+    }
+}
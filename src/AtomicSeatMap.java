@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * AtomicSeatMap stores the seat bits in atomic long words and changes them with compare-and-set, so seats
+ * can be sold and refunded from many threads without any lock.
+ * A claim or release of seats within one word is a single compare-and-set, which is what the lock-free sales and
+ * refunds use. One spanning several words sets the bits word by word in ascending word order, and if any seat
+ * turns out to be taken, rolls back the words claimed so far. The rolled-back bits are visible to other threads
+ * for a moment, so such a claim is only atomic while no lock-free sale or refund of the voyage runs; BoxOffice
+ * makes it under the voyage lock with them kept out.
+ */
+public class AtomicSeatMap extends SeatMap {
+    private final AtomicLongArray words;
+
+    /**
+     * Constructs an AtomicSeatMap with every seat free.
+     *
+     * @param numberOfSeats The number of seats of the voyage.
+     */
+    public AtomicSeatMap(int numberOfSeats) {
+        super(numberOfSeats);
+        this.words = new AtomicLongArray(wordsFor(numberOfSeats));
+    }
+
+    @Override
+    protected long word(int index) {
+        return words.get(index);
+    }
+
+    @Override
+    protected int wordCount() {
+        return words.length();
+    }
+
+    @Override
+    public void sell(int seatNumber) {
+        int index = seatNumber - 1;
+        setBits(index >>> WORD_SHIFT, 1L << index);
+    }
+
+    @Override
+    public void release(int seatNumber) {
+        int index = seatNumber - 1;
+        clearBits(index >>> WORD_SHIFT, 1L << index);
+    }
+
+    @Override
+    public boolean claim(int[] seatNumbers, int count) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            int wordIndex = (seatNumbers[i] - 1) >>> WORD_SHIFT;
+            first = Math.min(first, wordIndex);
+            last = Math.max(last, wordIndex);
+        }
+        for (int wordIndex = first; wordIndex <= last; wordIndex++) {
+            long mask = maskOf(seatNumbers, count, wordIndex);
+            if (mask == 0) {
+                continue;
+            }
+            while (true) {
+                long current = words.get(wordIndex);
+                if ((current & mask) != 0) { //A seat is taken, so the words claimed so far are given back.
+                    for (int claimed = first; claimed < wordIndex; claimed++) {
+                        clearBits(claimed, maskOf(seatNumbers, count, claimed));
+                    }
+                    return false;
+                }
+                if (words.compareAndSet(wordIndex, current, current | mask)) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean releaseAll(int[] seatNumbers, int count) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            int wordIndex = (seatNumbers[i] - 1) >>> WORD_SHIFT;
+            first = Math.min(first, wordIndex);
+            last = Math.max(last, wordIndex);
+        }
+        for (int wordIndex = first; wordIndex <= last; wordIndex++) {
+            long mask = maskOf(seatNumbers, count, wordIndex);
+            if (mask == 0) {
+                continue;
+            }
+            while (true) {
+                long current = words.get(wordIndex);
+                if ((current & mask) != mask) { //A seat is empty, so the words released so far are sold back.
+                    for (int released = first; released < wordIndex; released++) {
+                        setBits(released, maskOf(seatNumbers, count, released));
+                    }
+                    return false;
+                }
+                if (words.compareAndSet(wordIndex, current, current & ~mask)) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isLockFree() {
+        return true;
+    }
+
+    private void setBits(int wordIndex, long mask) {
+        long current;
+        do {
+            current = words.get(wordIndex);
+        } while (!words.compareAndSet(wordIndex, current, current | mask));
+    }
+
+    private void clearBits(int wordIndex, long mask) {
+        long current;
+        do {
+            current = words.get(wordIndex);
+        } while (!words.compareAndSet(wordIndex, current, current & ~mask));
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * BestAvailable picks the best free seats of a voyage for a SELL_BEST command. Every row is read from the seat map
+ * as one bitmask of free seats, so a search costs a few word operations per row instead of a look at every seat.
+ * Seats are ranked in this order, front rows first within each rank:
+ * <ol>
+ * <li>adjacent seats in one row on the same side of the aisle,</li>
+ * <li>adjacent seats in one row across the aisle,</li>
+ * <li>any seats in one row,</li>
+ * <li>the first free seats of the voyage.</li>
+ * </ol>
+ * A preference for window or premium seats is tried first with only those seats, then the search falls back to
+ * any seat. Held seats are not free, so a search never picks a seat that someone is checking out.
+ */
+public final class BestAvailable {
+    public static final int ANY = 0;
+    public static final int WINDOW = 1;
+    public static final int PREMIUM = 2;
+
+    private static final int ACROSS_AISLE = 1;
+    private static final int IN_ROW = 2;
+    private static final int SCATTERED = 3;
+
+    private BestAvailable() {
+    }
+
+    /**
+     * Parses the name of a preference as it is written in the command.
+     *
+     * @param name The name, "WINDOW" or "PREMIUM".
+     * @return The preference, -1 if there is no such preference.
+     */
+    public static int parsePreference(String name) {
+        switch (name) {
+            case "WINDOW":
+                return WINDOW;
+            case "PREMIUM":
+                return PREMIUM;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Finds the best free seats of the voyage. The caller holds the lock of the voyage.
+     *
+     * @param voyage     The voyage.
+     * @param count      The number of seats wanted, positive.
+     * @param preference ANY, WINDOW or PREMIUM.
+     * @param holds      The seat holds of the box office.
+     * @param seats      Receives the seat numbers in ascending order, it must hold count entries.
+     * @return True if the seats were found, false if the voyage has fewer free seats than count.
+     */
+    public static boolean find(Voyage voyage, int count, int preference, SeatHolds holds, int[] seats) {
+        int seatsPerRow = voyage.getSeatsPerRow();
+        long row = (1L << seatsPerRow) - 1;
+        long preferred = preferredPositions(voyage, preference, seatsPerRow);
+        if (preferred != row && search(voyage, count, preferred, holds, seats)) {
+            return true;
+        }
+        return search(voyage, count, row, holds, seats);
+    }
+
+    /**
+     * Returns the positions of a row that the preference asks for.
+     */
+    private static long preferredPositions(Voyage voyage, int preference, int seatsPerRow) {
+        long positions = 0;
+        for (int position = 0; position < seatsPerRow; position++) {
+            //Seat class 0 is the regular class of every voyage type, the others are premium.
+            boolean preferred = preference == WINDOW ? position == 0 || position == seatsPerRow - 1
+                    : preference != PREMIUM || voyage.getSeatClass(position + 1) != 0;
+            if (preferred) {
+                positions |= 1L << position;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Searches the seats among the allowed positions of every row.
+     *
+     * @param allowed The positions of a row that may be taken.
+     */
+    private static boolean search(Voyage voyage, int count, long allowed, SeatHolds holds, int[] seats) {
+        int numberOfSeats = voyage.getSeatMap().size();
+        int seatsPerRow = voyage.getSeatsPerRow();
+        long adjacent = (1L << (seatsPerRow - 1)) - 1; //Bit p is set if seat p and seat p + 1 sit side by side.
+        int aisle = voyage.getAisleIndex();
+        long sameSide = aisle < 0 ? adjacent : adjacent & ~(1L << aisle);
+        int bestRank = SCATTERED;
+        int bestFirst = 0;
+        long bestMask = 0;
+        int free = 0;
+        for (int first = 1; first <= numberOfSeats; first += seatsPerRow) {
+            int width = Math.min(seatsPerRow, numberOfSeats - first + 1);
+            long open = ~takenMask(voyage, holds, first, width) & ((1L << width) - 1) & allowed;
+            int openCount = Long.bitCount(open);
+            free += openCount;
+            if (openCount < count) {
+                continue;
+            }
+            long run = runs(open, count, sameSide);
+            if (run != 0) {
+                return collect(first, runMask(run, count), count, seats, 0) == count;
+            }
+            if (bestRank > ACROSS_AISLE) {
+                run = runs(open, count, adjacent);
+                if (run != 0) {
+                    bestRank = ACROSS_AISLE;
+                    bestFirst = first;
+                    bestMask = runMask(run, count);
+                } else if (bestRank > IN_ROW) {
+                    bestRank = IN_ROW;
+                    bestFirst = first;
+                    bestMask = open;
+                }
+            }
+        }
+        if (bestRank < SCATTERED) {
+            return collect(bestFirst, bestMask, count, seats, 0) == count;
+        }
+        if (free < count) {
+            return false;
+        }
+        int found = 0;
+        for (int first = 1; found < count; first += seatsPerRow) {
+            int width = Math.min(seatsPerRow, numberOfSeats - first + 1);
+            long open = ~takenMask(voyage, holds, first, width) & ((1L << width) - 1) & allowed;
+            found = collect(first, open, count, seats, found);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the seats of a row that are sold or held.
+     */
+    private static long takenMask(Voyage voyage, SeatHolds holds, int first, int width) {
+        long taken = voyage.getSeatMap().soldMask(first, width);
+        return holds.isEmpty() ? taken : taken | holds.heldMask(voyage.getVoyageID(), first, width);
+    }
+
+    /**
+     * Returns the positions where a run of count free seats starts, each seat side by side with the next one.
+     *
+     * @param open  The free positions.
+     * @param count The length of the run.
+     * @param links The positions whose seat sits side by side with the next one.
+     */
+    private static long runs(long open, int count, long links) {
+        long starts = open;
+        for (int i = 1; i < count && starts != 0; i++) {
+            starts &= (open >>> i) & (links >>> (i - 1));
+        }
+        return starts;
+    }
+
+    /**
+     * Returns the positions of the first run.
+     */
+    private static long runMask(long starts, int count) {
+        return ((1L << count) - 1) << Long.numberOfTrailingZeros(starts);
+    }
+
+    /**
+     * Appends the seats of a row mask, lowest position first, until count seats are collected.
+     *
+     * @return The number of seats collected so far.
+     */
+    private static int collect(int first, long mask, int count, int[] seats, int found) {
+        while (mask != 0 && found < count) {
+            seats[found++] = first + Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * BookingServer runs the booking engine as a long-lived TCP service. A client sends the same tab-separated
+ * commands as the input file, one per line, and gets back for every command exactly the lines a batch run writes
+ * for it, starting with the "COMMAND:" echo, followed by an empty line that ends the response.
+ * <p>
+ * Every connection is served by its own thread, a virtual thread when the JVM has them, against one shared
+ * BoxOffice and VoyageRegistry. Clients may pipeline: commands of a connection are executed in the order they
+ * were sent, and the responses are flushed whenever the client has nothing more queued, so a burst of commands
+ * is answered with one write.
+ * <p>
+ * Usage: java BookingServer port. The booking.journal.dir, booking.catalog, booking.voyageStore and booking.metrics
+ * options apply as they do to BookingSystem.
+ */
+public class BookingServer {
+    private static final byte[] END_OF_RESPONSE = {'\n'};
+
+    private final BoxOffice boxOffice;
+    private final VoyageRegistry voyages;
+    private final ExecutorService connections;
+    private ServerSocket listener;
+
+    /**
+     * Constructs a BookingServer over the given engine.
+     *
+     * @param boxOffice The BoxOffice shared by all connections.
+     * @param voyages   The registry shared by all connections.
+     */
+    public BookingServer(BoxOffice boxOffice, VoyageRegistry voyages) {
+        this.boxOffice = boxOffice;
+        this.voyages = voyages;
+        this.connections = newConnectionExecutor();
+    }
+
+    /**
+     * The main method of the server.
+     *
+     * @param args Command line arguments, the only one is the port to listen on.
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("ERROR: The server works exactly with one command line argument, the port to listen on."
+                    + " Sample usage can be as follows: \"java BookingServer 7070\".");
+            System.exit(1);
+        }
+        BoxOffice boxOffice = new BoxOffice();
+        VoyageRegistry voyages = new VoyageRegistry();
+        String journalDirectory = System.getProperty("booking.journal.dir");
+        String catalogFile = System.getProperty("booking.catalog");
+        if (catalogFile != null && journalDirectory != null) {
+            System.err.println("ERROR: booking.catalog and booking.journal.dir cannot be used together.");
+            System.exit(1);
+        }
+        MappedCatalog catalog = catalogFile == null ? null : MappedCatalog.open(Paths.get(catalogFile));
+        if (catalog != null) {
+            voyages.setCatalog(catalog);
+        }
+        if ("slab".equals(System.getProperty("booking.voyageStore"))) {
+            if (catalog != null) {
+                System.err.println("ERROR: booking.catalog and booking.voyageStore cannot be used together.");
+                System.exit(1);
+            }
+            voyages.setStore(new SlabStore());
+        }
+        Journal journal = journalDirectory == null ? null : new Journal(Paths.get(journalDirectory));
+        if (journal != null) {
+            journal.recover(voyages);
+            boxOffice.setJournal(journal);
+        }
+        Metrics.start(voyages, boxOffice);
+        BookingServer server = new BookingServer(boxOffice, voyages);
+        //The service runs until it is stopped, then the state is made durable as at the end of a batch run.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            if (journal != null) {
+                journal.close();
+            }
+            if (catalog != null) {
+                catalog.close(voyages);
+            }
+            Metrics.close();
+        }));
+        server.serve(new InetSocketAddress(Integer.parseInt(args[0])));
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     *
+     * @param address The address to listen on.
+     */
+    public void serve(InetSocketAddress address) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(true);
+            socket.bind(address, 1024);
+            synchronized (this) {
+                listener = socket;
+            }
+            while (!socket.isClosed()) {
+                Socket client;
+                try {
+                    client = socket.accept();
+                } catch (SocketException e) { //The listener was closed.
+                    break;
+                }
+                client.setTcpNoDelay(true);
+                connections.execute(() -> handle(client));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot listen on " + address, e);
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting connections. Connections already open are served until their clients close them.
+     */
+    public synchronized void close() {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves one connection: executes its commands in order and writes back the response of each one.
+     *
+     * @param client The connection.
+     */
+    private void handle(Socket client) {
+        CommandDispatcher dispatcher = new CommandDispatcher(boxOffice, voyages);
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                FileOutput.beginCapture();
+                byte[] response;
+                try {
+                    dispatcher.execute(line, false);
+                } catch (RuntimeException e) { //A batch run would stop here, the server only drops the command.
+                    e.printStackTrace();
+                } finally {
+                    response = FileOutput.endCapture();
+                }
+                out.write(response);
+                out.write(END_OF_RESPONSE);
+                if (!in.ready()) { //Pipelined commands are answered together once the client waits for them.
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) { //The client went away, its connection is simply dropped.
+        }
+    }
+
+    /**
+     * Creates the executor running the connections: one virtual thread per connection on JVMs that have them,
+     * a cached pool of daemon platform threads otherwise.
+     *
+     * @return The executor.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) { //Virtual threads need Java 21, older JVMs use platform threads.
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "booking-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
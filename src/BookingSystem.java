@@ -1,4 +1,4 @@
-import java.util.*;
+import java.nio.file.Paths;
 
 /**
  * The main class responsible for executing the program.
@@ -19,29 +19,72 @@ public class BookingSystem {
             System.exit(1);
         }
         BoxOffice boxOffice = new BoxOffice();
-        List<Voyage> voyageList = new ArrayList<>();
+        VoyageRegistry voyages = new VoyageRegistry();
         Voyage voyage = new Voyage();
-        String[] lines = FileInput.readFile(args[0], true, true);
+        CommandReader lines = FileInput.openFile(args[0], true, true);
+        //Restores the voyages of earlier runs from -Dbooking.journal.dir and records every change from now on.
+        Journal journal = null;
+        String journalDirectory = System.getProperty("booking.journal.dir");
+        //Maps the voyages of earlier runs from -Dbooking.catalog, which keeps its state in place of a journal.
+        MappedCatalog catalog = null;
+        String catalogFile = System.getProperty("booking.catalog");
+        if (catalogFile != null && journalDirectory != null) {
+            System.err.println("ERROR: booking.catalog and booking.journal.dir cannot be used together.");
+            System.exit(1);
+        }
+        if (catalogFile != null) {
+            catalog = MappedCatalog.open(Paths.get(catalogFile));
+            voyages.setCatalog(catalog);
+        }
+        //Keeps the voyages off the heap if -Dbooking.voyageStore=slab asks for it.
+        if ("slab".equals(System.getProperty("booking.voyageStore"))) {
+            if (catalog != null) {
+                System.err.println("ERROR: booking.catalog and booking.voyageStore cannot be used together.");
+                System.exit(1);
+            }
+            voyages.setStore(new SlabStore());
+        }
+        if (journalDirectory != null) {
+            journal = new Journal(Paths.get(journalDirectory));
+            journal.recover(voyages);
+            boxOffice.setJournal(journal);
+        }
+        //Exports the metrics of the run if -Dbooking.metrics or -Dbooking.metrics.file asks for them.
+        Metrics.start(voyages, boxOffice);
         FileOutput.main(args);
         FileOutput.writeToFile("",false,false);
-        if (lines.length == 0){
+        if (!lines.hasNext()){
             FileOutput.writeToFile("Z Report:\n----------------",true,true);
-            boxOffice.zReport(voyageList,true);
+            boxOffice.zReport(voyages,true);
+            FileOutput.close();
+            if (journal != null) {
+                journal.close();
+            }
+            if (catalog != null) {
+                catalog.close(voyages);
+            }
+            Metrics.close();
             System.exit(1);
         }
-        //Start the program.
-        voyage.inputReader(boxOffice, voyageList, lines);
-        //Sorts voyages in voyageList by VoyageID
-        Collections.sort(voyageList, new Comparator<Voyage>() {
-            @Override
-            public int compare(Voyage v1, Voyage v2) {
-                return Integer.compare(v1.getVoyageID(), v2.getVoyageID());
-            }
-        });
-        if (!(lines[lines.length - 1].equals("Z_REPORT"))){
+        //Start the program, replaying the commands on several threads if -Dbooking.replay.threads asks for it.
+        int threads = Integer.getInteger("booking.replay.threads", 1);
+        if (threads > 1) {
+            new ParallelReplay(threads).run(boxOffice, voyages, lines);
+        } else {
+            voyage.inputReader(boxOffice, voyages, lines);
+        }
+        if (!(lines.getLastLine().equals("Z_REPORT") || lines.getLastLine().equals("Z_REPORT\tFULL"))){
             FileOutput.writeToFile("Z Report:\n----------------",true,true);
-            boxOffice.zReport(voyageList,true);
+            boxOffice.zReport(voyages,true);
+        }
+        FileOutput.close();
+        if (journal != null) {
+            journal.close();
+        }
+        if (catalog != null) {
+            catalog.close(voyages);
         }
+        Metrics.close();
     }
 
     /**
@@ -52,7 +95,9 @@ public class BookingSystem {
      */
     public static String formatNumber(double number) {
         String value;
-        if (number == (int) number) {
+        if ((float) number == number) { //Every number of a command is a float, which the renderer prints exactly.
+            value = new ReportRenderer(24).appendNumber((float) number).toString();
+        } else if (number == (int) number) {
             value = String.valueOf((int) number);
         } else {
             value = String.format("%.2f",number);
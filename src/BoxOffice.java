@@ -1,125 +1,841 @@
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BoxOffice class manages ticket sales, refunds, initialization of voyages, cancellation of voyages,
  * and Z_Reports.
+ * A BoxOffice can be shared by many threads. Every operation on a voyage runs under the lock of the stripe
+ * the voyage ID falls into, so a multi-seat sale claims all of its seats or none of them, while operations
+ * on voyages of different stripes run in parallel.
+ * Seats can be held for a while before they are sold; the holds expire on the clock of the BoxOffice, which is the
+ * system clock unless -Dbooking.clock=manual asks for a ManualClock.
+ * With -Dbooking.report.delta=true, a Z report prints only the voyages that changed since the previous report.
  */
 public class BoxOffice {
+    private static final int DEFAULT_LOCK_STRIPES = 256;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final int IN_FLIGHT_SPACING = 16; //Keeps the in-flight counters of two stripes off one cache line.
+    private static final boolean SUMMARY = Boolean.getBoolean("booking.report.summary");
+    private static final boolean DELTA = Boolean.getBoolean("booking.report.delta");
+    private static final LongAdder NO_SUCH_VOYAGE = Metrics.counter("error.NO_SUCH_VOYAGE");
+    private static final LongAdder NOT_REFUNDABLE = Metrics.counter("error.NOT_REFUNDABLE");
+    private static final LongAdder USAGE_ERROR = Metrics.counter("error.USAGE_ERROR");
+    private static final LongAdder DUPLICATE_VOYAGE_ID = Metrics.counter("error.DUPLICATE_VOYAGE_ID");
+    private static final LongAdder NEGATIVE_SEAT = Metrics.counter("error.NEGATIVE_SEAT");
+    private static final LongAdder NO_SUCH_SEAT = Metrics.counter("error.NO_SUCH_SEAT");
+    private static final LongAdder SEAT_ALREADY_EMPTY = Metrics.counter("error.SEAT_ALREADY_EMPTY");
+    private static final LongAdder SEAT_ALREADY_SOLD = Metrics.counter("error.SEAT_ALREADY_SOLD");
+    private static final LongAdder NOT_ENOUGH_SEATS = Metrics.counter("error.NOT_ENOUGH_SEATS");
+    private static final LongAdder SEAT_ON_HOLD = Metrics.counter("error.SEAT_ON_HOLD");
+    private static final LongAdder NO_SUCH_HOLD = Metrics.counter("error.NO_SUCH_HOLD");
+    private static final LongAdder SEATS_SOLD = Metrics.counter("seats.sold");
+    private static final LongAdder SEATS_REFUNDED = Metrics.counter("seats.refunded");
+    private static final LongAdder VOYAGES_INITIALIZED = Metrics.counter("voyages.initialized");
+    private static final LongAdder VOYAGES_CANCELLED = Metrics.counter("voyages.cancelled");
+    private static final LongAdder HOLDS_PLACED = Metrics.counter("holds.placed");
+    private static final LongAdder HOLDS_CONFIRMED = Metrics.counter("holds.confirmed");
+    private static final LongAdder HOLDS_RELEASED = Metrics.counter("holds.released");
+    private static final LongAdder HOLDS_EXPIRED = Metrics.counter("holds.expired");
+    private static final LatencyHistogram RENDER_LATENCY = Metrics.histogram("render.voyage");
+
+    private final ReentrantLock[] stripes;
+    private final int stripeShift;
+    private final AtomicIntegerArray inFlight; //Lock-free sales and refunds under way, by stripe.
+    private final LongAdder renderCacheHits = new LongAdder();
+    private final LongAdder renderCacheMisses = new LongAdder();
+    private final SalesTally totals = new SalesTally(null, null);
+    private final SeatHolds holds;
+    //The IDs of the voyages initialized, sold, refunded or cancelled since the last report, kept in delta mode only.
+    private final Set<Integer> changed = DELTA ? ConcurrentHashMap.newKeySet() : null;
+    private volatile boolean reported;
+    private Journal journal;
+
     public BoxOffice() {
+        this(Integer.getInteger("booking.lockStripes", DEFAULT_LOCK_STRIPES));
+    }
+
+    /**
+     * Constructs a BoxOffice with the given number of lock stripes.
+     *
+     * @param lockStripes The number of stripes, rounded up to a power of two.
+     */
+    public BoxOffice(int lockStripes) {
+        this(lockStripes, "manual".equals(System.getProperty("booking.clock")) ? new ManualClock() : Clock.systemUTC());
+    }
+
+    /**
+     * Constructs a BoxOffice with the given number of lock stripes and the clock its seat holds expire on.
+     *
+     * @param lockStripes The number of stripes, rounded up to a power of two.
+     * @param clock       The clock of the seat holds.
+     */
+    public BoxOffice(int lockStripes, Clock clock) {
+        holds = new SeatHolds(clock);
+        int count = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+        stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        inFlight = new AtomicIntegerArray(count * IN_FLIGHT_SPACING);
+        stripeShift = Integer.numberOfLeadingZeros(count) + 1;
+    }
+
+    /**
+     * Returns the lock guarding the voyage with the given ID.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return The lock of the stripe the voyage falls into.
+     */
+    public ReentrantLock lockFor(int voyageID) {
+        return stripes[stripeOf(voyageID)];
+    }
+
+    private int stripeOf(int voyageID) {
+        return stripes.length == 1 ? 0 : (voyageID * GOLDEN_RATIO) >>> stripeShift;
+    }
+
+    /**
+     * Starts a lock-free sale or refund of a voyage, unless seats of the voyage are held, the voyage is cancelled or
+     * a claim spanning several words is under way.
+     * A voyage with holds is changed under its lock only, as a lock-free sale could otherwise own a held seat for a
+     * moment; a cancelled voyage is left to the locked path, which reports that it is gone.
+     *
+     * @return True if the operation may go on without the voyage lock, it then ends with exitLockFree.
+     */
+    private boolean enterLockFree(Voyage voyage) {
+        int voyageID = voyage.getVoyageID();
+        int slot = stripeOf(voyageID) * IN_FLIGHT_SPACING;
+        inFlight.incrementAndGet(slot);
+        if (!holds.hasHolds(voyageID) && !voyage.isCancelled() && !voyage.isExclusive()) {
+            return true;
+        }
+        inFlight.decrementAndGet(slot);
+        return false;
+    }
+
+    private void exitLockFree(int voyageID) {
+        inFlight.decrementAndGet(stripeOf(voyageID) * IN_FLIGHT_SPACING);
+    }
+
+    /**
+     * Waits for the lock-free sales and refunds under way in the stripe of a voyage. Once the voyage has holds or is
+     * cancelled, the ones that start later take the voyage lock, so afterwards every change of the voyage is made
+     * under the lock.
+     */
+    private void awaitLockFree(int voyageID) {
+        int slot = stripeOf(voyageID) * IN_FLIGHT_SPACING;
+        while (inFlight.get(slot) != 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Claims seats under the voyage lock. On a lock-free seat map, seats within one word are claimed with a single
+     * compare-and-set; seats spanning several words are claimed with the lock-free sales and refunds of the voyage
+     * kept out, as they could otherwise see the claim half done.
+     *
+     * @return True if all seats were claimed, false if any of them was taken.
+     */
+    private boolean claimLocked(Voyage voyage, int[] seatList, int count) {
+        SeatMap seatMap = voyage.getSeatMap();
+        if (!seatMap.isLockFree() || seatMap.inOneWord(seatList, count)) {
+            return seatMap.claim(seatList, count);
+        }
+        voyage.setExclusive(true);
+        try {
+            awaitLockFree(voyage.getVoyageID());
+            return seatMap.claim(seatList, count);
+        } finally {
+            voyage.setExclusive(false);
+        }
+    }
+
+    /**
+     * Releases seats of a lock-free seat map under the voyage lock, the counterpart of claimLocked.
+     *
+     * @return True if all seats were released, false if any of them was empty.
+     */
+    private boolean releaseLocked(Voyage voyage, int[] seatList, int count) {
+        SeatMap seatMap = voyage.getSeatMap();
+        if (seatMap.inOneWord(seatList, count)) {
+            return seatMap.releaseAll(seatList, count);
+        }
+        voyage.setExclusive(true);
+        try {
+            awaitLockFree(voyage.getVoyageID());
+            return seatMap.releaseAll(seatList, count);
+        } finally {
+            voyage.setExclusive(false);
+        }
+    }
+
+    /**
+     * Returns the clock the seat holds expire on.
+     *
+     * @return The clock given at construction.
+     */
+    public Clock getClock() {
+        return holds.getClock();
+    }
+
+    /**
+     * Records every mutation in the given journal from now on. It must be set before the BoxOffice is shared.
+     *
+     * @param journal The journal, already recovered.
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Writes an error message and counts it under the given error counter.
+     *
+     * @param counter The counter of the error.
+     * @param message The message to write.
+     */
+    private static void reportError(LongAdder counter, String message) {
+        if (Metrics.ENABLED) {
+            counter.increment();
+        }
+        FileOutput.writeToFile(message,true,true);
+    }
+
+    /**
+     * Returns the sales counters of the whole box office since the start of the run.
+     *
+     * @return The tally of all sales, refunds and cancellations.
+     */
+    public SalesTally getTotals() {
+        return totals;
+    }
+
+    /**
+     * Counts a sale in the tallies of the box office and of the route of the voyage. The seats are counted once
+     * each, as Voyage.countSeats returns them; the amount is what was charged.
+     */
+    private void tallySale(VoyageRegistry voyages, Voyage voyage, int seats, int premiumSeats, long amount) {
+        totals.recordSale(seats, premiumSeats, amount);
+        voyages.routeTally(voyage).recordSale(seats, premiumSeats, amount);
+        markChanged(voyage.getVoyageID());
+    }
+
+    /**
+     * Counts a refund or a cancellation in the tallies of the box office and of the route of the voyage.
+     */
+    private void tallyRefund(VoyageRegistry voyages, Voyage voyage, int seats, int premiumSeats, long amount) {
+        totals.recordRefund(seats, premiumSeats, amount);
+        voyages.routeTally(voyage).recordRefund(seats, premiumSeats, amount);
+        markChanged(voyage.getVoyageID());
+    }
+
+    /**
+     * Notes that a voyage has changed since the last report, so a delta report prints it.
+     */
+    private void markChanged(int voyageID) {
+        if (changed != null) {
+            changed.add(voyageID);
+        }
+    }
+
+    private long enterJournal() {
+        return journal == null ? 0 : journal.enter();
+    }
+
+    private void exitJournal(long stamp) {
+        if (journal != null) {
+            journal.exit(stamp);
+        }
     }
 
     /**
      * Sells tickets for the specified voyage and seats.
      *
-     * @param voyageList The list of voyages.
-     * @param voyageID   The ID of the voyage.
-     * @param seats      The seat numbers to sell, separated by underscores.
-     */
-    public void sellTicket(List<Voyage> voyageList, int voyageID, String seats) {
-        String[] seatNumbers = seats.split("_");
-        Voyage voyage1 = null;
-        float sellAmount = 0;
-        //It tries to find the voyage in the voyageList and if it finds it, it makes the sale.
-        for (Voyage voyage : voyageList) {
-            if (voyage.getVoyageID() == voyageID) {
-                voyage1 = voyage;
+     * @param voyages  The registry of voyages.
+     * @param voyageID The ID of the voyage.
+     * @param seats    The seat numbers to sell.
+     */
+    public void sellTicket(VoyageRegistry voyages, int voyageID, SeatSelection seats) {
+        ReportRenderer content;
+        long stamp = enterJournal();
+        try {
+            content = sell(voyages, voyageID, seats);
+        } finally {
+            exitJournal(stamp);
+        }
+        //The sale is reported once it is in the journal.
+        if (content != null) {
+            content.writeLine();
+        }
+    }
+
+    /**
+     * Sells the seats and records the sale in the journal.
+     *
+     * @return The renderer of the calling thread holding the message reporting the sale, null if an error has
+     *         been printed instead.
+     */
+    private ReportRenderer sell(VoyageRegistry voyages, int voyageID, SeatSelection seats) {
+        int[] seatList = seats.seats();
+        int count = seats.count();
+        long sellAmount = 0;
+        Voyage voyage = voyages.get(voyageID);
+        if (voyage != null && voyage.getSeatMap().isLockFree() && voyage.getSeatMap().inOneWord(seatList, count)
+                && enterLockFree(voyage)) {
+            //Lock-free seat maps claim seats within one word with compare-and-set, the voyage lock is not needed
+            try {
+                if (!claimSeats(seats, voyage)) {
+                    return null;
+                }
+                for (int i = 0; i < count; i++) {
+                    sellAmount += voyage.getSeatPrice(seatList[i]);
+                }
+                voyage.addRevenue(sellAmount);
+                //A cancellation waits for this sale to finish, then pays it back with the other sold seats.
+                long counted = voyage.countSeats(seatList, count, 1);
+                if (journal != null) {
+                    journal.logSell(voyageID, seatList, count);
+                }
+                tallySale(voyages, voyage, Voyage.seatsOf(counted), Voyage.premiumSeatsOf(counted), sellAmount);
+                if (Metrics.ENABLED) {
+                    SEATS_SOLD.add(Voyage.seatsOf(counted));
+                }
+            } finally {
+                exitLockFree(voyageID);
+            }
+        } else {
+            ReentrantLock lock = lockFor(voyageID);
+            lock.lock();
+            try {
+                voyage = voyages.get(voyageID);
+                if (voyage == null){
+                    reportError(NO_SUCH_VOYAGE, "ERROR: There is no voyage with ID of " + voyageID + "!");
+                    return null;
+                }
                 //Checks seat availability
-                if (isSeatAvailable(seatNumbers, voyage)) {
+                if (!isSeatAvailable(seats, voyage)) {
+                    return null;
+                }
+                SeatMap seatMap = voyage.getSeatMap();
+                if (seatMap.isLockFree()) {
+                    //Lock-free sales run again once the holds of the voyage have ended.
+                    if (!claimLocked(voyage, seatList, count)) {
+                        reportError(SEAT_ALREADY_SOLD, "ERROR: One or more seats already sold!");
+                        return null;
+                    }
+                } else {
                     //Sells seats individually
-                    for(String seat : seatNumbers) {
-                        voyage.getNumberOfSeats().set(Integer.parseInt(seat) - 1, "X");
-                        float price = voyage.getSeatFee(Integer.parseInt(seat));
-                        voyage.setRevenue(price);
-                        sellAmount += price;
+                    for (int i = 0; i < count; i++) {
+                        seatMap.sell(seatList[i]);
                     }
-                }else {
-                    return;
                 }
+                recordSale(voyages, voyage, seatList, count);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return saleMessage(voyageID, voyage, seats);
+    }
+
+    /**
+     * Books a sale whose seats have just been marked sold under the voyage lock: the revenue, the counters of the
+     * voyage, the journal and the tallies.
+     */
+    private void recordSale(VoyageRegistry voyages, Voyage voyage, int[] seatList, int count) {
+        long sellAmount = 0;
+        for (int i = 0; i < count; i++) {
+            sellAmount += voyage.getSeatPrice(seatList[i]);
+        }
+        voyage.addRevenue(sellAmount);
+        long counted = voyage.countSeats(seatList, count, 1);
+        if (journal != null) {
+            journal.logSell(voyage.getVoyageID(), seatList, count);
+        }
+        tallySale(voyages, voyage, Voyage.seatsOf(counted), Voyage.premiumSeatsOf(counted), sellAmount);
+        if (Metrics.ENABLED) {
+            SEATS_SOLD.add(Voyage.seatsOf(counted));
+        }
+    }
+
+    /**
+     * Renders the message reporting a sale, with the price as Voyage.getPrintedPrice sums it.
+     *
+     * @return The renderer of the calling thread holding the message.
+     */
+    private static ReportRenderer saleMessage(int voyageID, Voyage voyage, SeatSelection seats) {
+        return seats.appendDashed(ReportRenderer.begin().append("Seat ")).append(" of the Voyage ").append(voyageID)
+                .append(" from ").append(voyage.getFromWhere()).append(" to ").append(voyage.getToWhere())
+                .append(" was successfully sold for ")
+                .appendFixed(voyage.getPrintedPrice(seats.seats(), seats.count()), 2).append(" TL.");
+    }
+
+    /**
+     * Sells the best available seats of the specified voyage, chosen by BestAvailable.
+     *
+     * @param voyages    The registry of voyages.
+     * @param voyageID   The ID of the voyage.
+     * @param count      The number of seats to sell, positive.
+     * @param preference The seat preference, see BestAvailable.
+     */
+    public void sellBest(VoyageRegistry voyages, int voyageID, int count, int preference) {
+        ReportRenderer content;
+        long stamp = enterJournal();
+        try {
+            content = sellBestSeats(voyages, voyageID, count, preference);
+        } finally {
+            exitJournal(stamp);
+        }
+        if (content != null) {
+            content.writeLine();
+        }
+    }
+
+    /**
+     * Finds and sells the best available seats and records the sale in the journal.
+     *
+     * @return The renderer of the calling thread holding the message reporting the sale, null if an error has
+     *         been printed instead.
+     */
+    private ReportRenderer sellBestSeats(VoyageRegistry voyages, int voyageID, int count, int preference) {
+        ReentrantLock lock = lockFor(voyageID);
+        lock.lock();
+        try {
+            Voyage voyage = voyages.get(voyageID);
+            if (voyage == null) {
+                reportError(NO_SUCH_VOYAGE, "ERROR: There is no voyage with ID of " + voyageID + "!");
+                return null;
+            }
+            SeatMap seatMap = voyage.getSeatMap();
+            if (count > seatMap.size()) {
+                reportError(NOT_ENOUGH_SEATS, "ERROR: There are not enough empty seats!");
+                return null;
+            }
+            int[] seatList = new int[count];
+            //Lock-free sales do not take the voyage lock, so a claim can lose a seat to them and is searched again.
+            do {
+                if (!BestAvailable.find(voyage, count, preference, holds, seatList)) {
+                    reportError(NOT_ENOUGH_SEATS, "ERROR: There are not enough empty seats!");
+                    return null;
+                }
+            } while (!claimLocked(voyage, seatList, count));
+            StringBuilder seatText = new StringBuilder(count * 4);
+            for (int i = 0; i < count; i++) {
+                seatText.append(i == 0 ? "" : "_").append(seatList[i]);
+            }
+            recordSale(voyages, voyage, seatList, count);
+            return saleMessage(voyageID, voyage, SeatSelection.of(seatText.toString()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds seats of the specified voyage, so no one else can sell or hold them until the hold is confirmed,
+     * released or expires.
+     *
+     * @param voyages  The registry of voyages.
+     * @param voyageID The ID of the voyage.
+     * @param seats    The seat numbers to hold.
+     * @param seconds  How long the seats are held, positive.
+     */
+    public void holdSeats(VoyageRegistry voyages, int voyageID, SeatSelection seats, int seconds) {
+        ReportRenderer content;
+        ReentrantLock lock = lockFor(voyageID);
+        lock.lock();
+        try {
+            Voyage voyage = voyages.get(voyageID);
+            if (voyage == null) {
+                reportError(NO_SUCH_VOYAGE, "ERROR: There is no voyage with ID of " + voyageID + "!");
+                return;
+            }
+            SeatMap seatMap = voyage.getSeatMap();
+            if (seatMap.isLockFree() && !holds.hasHolds(voyageID)) {
+                holds.open(voyageID, seatMap.size());
+                awaitLockFree(voyageID);
+            }
+            if (!isSeatAvailable(seats, voyage)) {
+                holds.closeIfUnused(voyageID);
+                return;
+            }
+            SeatHolds.Hold hold = holds.hold(voyageID, seatMap.size(), seats.seats(), seats.count(), seconds * 1000L);
+            content = seats.appendDashed(ReportRenderer.begin().append("Seat ")).append(" of the Voyage ")
+                    .append(voyageID).append(" from ").append(voyage.getFromWhere()).append(" to ")
+                    .append(voyage.getToWhere()).append(" was held for ").append(seconds)
+                    .append(" seconds with hold ID ").append(hold.getHoldID()).append('.');
+        } finally {
+            lock.unlock();
+        }
+        if (Metrics.ENABLED) {
+            HOLDS_PLACED.increment();
+        }
+        content.writeLine();
+    }
+
+    /**
+     * Sells the seats of a hold and ends the hold.
+     *
+     * @param voyages The registry of voyages.
+     * @param holdID  The ID of the hold.
+     */
+    public void confirmHold(VoyageRegistry voyages, int holdID) {
+        ReportRenderer content;
+        long stamp = enterJournal();
+        try {
+            content = confirm(voyages, holdID);
+        } finally {
+            exitJournal(stamp);
+        }
+        if (content != null) {
+            if (Metrics.ENABLED) {
+                HOLDS_CONFIRMED.increment();
+            }
+            content.writeLine();
+        }
+    }
+
+    /**
+     * Sells the seats of a hold and records the sale in the journal.
+     *
+     * @return The renderer of the calling thread holding the message reporting the sale, null if an error has
+     *         been printed instead.
+     */
+    private ReportRenderer confirm(VoyageRegistry voyages, int holdID) {
+        SeatHolds.Hold hold = holds.get(holdID);
+        if (hold == null) {
+            reportError(NO_SUCH_HOLD, "ERROR: There is no hold with ID of " + holdID + "!");
+            return null;
+        }
+        int voyageID = hold.getVoyageID();
+        ReentrantLock lock = lockFor(voyageID);
+        lock.lock();
+        try {
+            //The hold may have expired or been released while the lock was awaited.
+            if (holds.get(holdID) != hold) {
+                reportError(NO_SUCH_HOLD, "ERROR: There is no hold with ID of " + holdID + "!");
+                return null;
+            }
+            //A cancellation ends the holds of the voyage under the same lock, so the voyage is still there.
+            Voyage voyage = voyages.get(voyageID);
+            int[] seatList = hold.getSeats();
+            int count = seatList.length;
+            if (!claimLocked(voyage, seatList, count)) {
+                throw new IllegalStateException("Seats of hold " + holdID + " were sold while they were held");
+            }
+            holds.release(hold);
+            recordSale(voyages, voyage, seatList, count);
+            return saleMessage(voyageID, voyage, SeatSelection.of(hold.getSeatText()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a hold without selling its seats.
+     *
+     * @param voyages The registry of voyages.
+     * @param holdID  The ID of the hold.
+     */
+    public void releaseHold(VoyageRegistry voyages, int holdID) {
+        SeatHolds.Hold hold = holds.get(holdID);
+        if (hold == null) {
+            reportError(NO_SUCH_HOLD, "ERROR: There is no hold with ID of " + holdID + "!");
+            return;
+        }
+        int voyageID = hold.getVoyageID();
+        ReportRenderer content;
+        ReentrantLock lock = lockFor(voyageID);
+        lock.lock();
+        try {
+            if (!holds.release(hold)) {
+                reportError(NO_SUCH_HOLD, "ERROR: There is no hold with ID of " + holdID + "!");
+                return;
+            }
+            Voyage voyage = voyages.get(voyageID);
+            content = SeatSelection.of(hold.getSeatText()).appendDashed(ReportRenderer.begin().append("Seat "))
+                    .append(" of the Voyage ").append(voyageID).append(" from ").append(voyage.getFromWhere())
+                    .append(" to ").append(voyage.getToWhere()).append(" was released from hold ").append(holdID)
+                    .append('.');
+        } finally {
+            lock.unlock();
+        }
+        if (Metrics.ENABLED) {
+            HOLDS_RELEASED.increment();
+        }
+        content.writeLine();
+    }
+
+    /**
+     * Ends the holds whose time is up, freeing their seats. Every command calls it first, so expiry needs no thread
+     * of its own; while no hold is due it costs a clock read.
+     *
+     * @return The number of holds that expired.
+     */
+    public int expireHolds() {
+        if (holds.isEmpty()) {
+            return 0;
+        }
+        int expired = 0;
+        for (SeatHolds.Hold hold : holds.expire()) {
+            ReentrantLock lock = lockFor(hold.getVoyageID());
+            lock.lock();
+            try {
+                //A hold confirmed or released since it was taken off the wheel has ended already.
+                if (holds.release(hold)) {
+                    expired++;
+                }
+            } finally {
+                lock.unlock();
             }
         }
-        String content = String.format("Seat %s of the Voyage %d from %s to %s was successfully sold for %.2f TL.",seats.replace("_","-"),voyageID,voyage1.getFromWhere(),voyage1.getToWhere(),sellAmount);
-        FileOutput.writeToFile(content,true,true);
+        if (Metrics.ENABLED) {
+            HOLDS_EXPIRED.add(expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Lists the voyages from one city to another with their empty seats and fares, in ascending order of their IDs.
+     *
+     * @param voyages   The registry of voyages.
+     * @param fromWhere The departure city.
+     * @param toWhere   The destination city.
+     */
+    public void queryRoute(VoyageRegistry voyages, String fromWhere, String toWhere) {
+        Voyage[] matches = voyages.route(fromWhere, toWhere);
+        if (matches.length == 0) {
+            ReportRenderer.begin().append("No Voyages Available from ").append(fromWhere).append(" to ")
+                    .append(toWhere).append('!').writeLine();
+            return;
+        }
+        for (Voyage voyage : matches) {
+            if (voyage.isStale()) {
+                continue;
+            }
+            //Seat class 0 is the regular class of every voyage type, the others are premium. The fees are printed as
+            //INIT_VOYAGE prints them.
+            float regularPrice = 0;
+            float premiumPrice = -1;
+            for (int seat = voyage.getSeatsPerRow(); seat > 0; seat--) {
+                if (voyage.getSeatClass(seat) == 0) {
+                    regularPrice = voyage.getSeatFee(seat);
+                } else {
+                    premiumPrice = voyage.getSeatFee(seat);
+                }
+            }
+            ReportRenderer message = ReportRenderer.begin().append("Voyage ").append(voyage.getVoyageID())
+                    .append(" from ").append(voyage.getFromWhere()).append(" to ").append(voyage.getToWhere())
+                    .append(" has ").append(voyage.getSeatMap().size() - voyage.getSeatsSold())
+                    .append(" empty seats priced ")
+                    .appendFixed(regularPrice, 2).append(" TL");
+            if (premiumPrice >= 0) {
+                message.append(" regular and ").appendFixed(premiumPrice, 2).append(" TL premium");
+            }
+            message.append('.').writeLine();
+        }
     }
 
     /**
      * Prints the details of a voyage, including seat arrangement and revenue.
+     * The rendered details are cached in the voyage and reused until the voyage changes.
      *
      * @param voyageID The ID of the voyage.
      * @param voyage   The voyage object.
+     * @return False if nothing was printed, as the voyage is a view whose record was reused since it was taken.
      */
-    public void voyagePrinter(int voyageID, Voyage voyage) {
-        FileOutput.writeToFile("Voyage " + voyageID + "\n" + voyage.getFromWhere() + "-" + voyage.getToWhere(), true, true);
-        List<String> numberOfRows = voyage.getNumberOfSeats();
-        int seatsPerRow = 0;
-        int corridor = 0;
-        switch (voyage.getClass().getSimpleName()){
-            case "Standard":
-                seatsPerRow = 4;
-                corridor = 1;
-                break;
-            case "Premium":
-                seatsPerRow = 3;
-                break;
-            case "Minibus":
-                seatsPerRow = 2;
-                break;
-            default:
+    public boolean voyagePrinter(int voyageID, Voyage voyage) {
+        byte[] block;
+        ReentrantLock lock = lockFor(voyageID);
+        lock.lock();
+        try {
+            if (voyage.isStale()) { //Cancelled and its record given to another voyage, under the lock it stays so.
+                return false;
+            }
+            block = renderedDetails(voyageID, voyage);
+        } finally {
+            lock.unlock();
         }
-        //It prints the output according to the seating arrangement.
-        for (int i = 0; i < numberOfRows.size(); i += seatsPerRow) {
-            StringBuilder rowBuilder = new StringBuilder();
-            for (int j = 0; j < seatsPerRow && i + j < numberOfRows.size(); j++) {
-                rowBuilder.append(numberOfRows.get(i + j));
-                if (j < seatsPerRow - 1 && i + j + 1 < numberOfRows.size()) {
-                    rowBuilder.append(j == corridor ? seatsPerRow != 2 ? " | " : " " : " ");
+        FileOutput.writeBytes(block);
+        return true;
+    }
+
+    /**
+     * Returns the rendered details of a voyage from its cache, rendering them again if the voyage has changed.
+     * The caller holds the lock of the voyage and has checked that it is not stale.
+     *
+     * @param voyageID The ID of the voyage.
+     * @param voyage   The voyage object.
+     * @return The rendered lines encoded as UTF-8, each one ending with a new line.
+     */
+    private byte[] renderedDetails(int voyageID, Voyage voyage) {
+        byte[] block = voyage.getRenderedBlock();
+        if (block != null) {
+            renderCacheHits.increment();
+            return block;
+        }
+        renderCacheMisses.increment();
+        //The version is read first, so a lock-free sale that lands during rendering invalidates the block.
+        int version = voyage.getVersion();
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        block = renderVoyage(voyageID, voyage);
+        if (Metrics.ENABLED) {
+            RENDER_LATENCY.record(System.nanoTime() - start);
+        }
+        voyage.setRenderedBlock(block, version);
+        return block;
+    }
+
+    /**
+     * Renders the details of a voyage, including seat arrangement and revenue.
+     *
+     * @param voyageID The ID of the voyage.
+     * @param voyage   The voyage object.
+     * @return The rendered lines encoded as UTF-8, each one ending with a new line.
+     */
+    private byte[] renderVoyage(int voyageID, Voyage voyage) {
+        SeatMap seatMap = voyage.getSeatMap();
+        int numberOfSeats = seatMap.size();
+        int seatsPerRow = voyage.getSeatsPerRow();
+        int aisle = voyage.getAisleIndex();
+        ReportRenderer builder = ReportRenderer.begin();
+        builder.append("Voyage ").append(voyageID).append('\n')
+                .append(voyage.getFromWhere()).append('-').append(voyage.getToWhere()).append('\n');
+        //It renders the seats according to the seating arrangement, reading the seat states from the bitset.
+        for (int i = 0; i < numberOfSeats; i += seatsPerRow) {
+            for (int j = 0; j < seatsPerRow && i + j < numberOfSeats; j++) {
+                builder.append(seatMap.isSold(i + j + 1) ? 'X' : '*');
+                if (j < seatsPerRow - 1 && i + j + 1 < numberOfSeats) {
+                    builder.append(j == aisle ? " | " : " ");
                 }
             }
-            FileOutput.writeToFile(rowBuilder.toString(),true,true);
+            builder.append('\n');
         }
-        FileOutput.writeToFile("Revenue: " + String.format("%.2f",voyage.getRevenue()),true,true);
+        builder.append("Revenue: ").appendMoney(voyage.getRevenueMicros()).append('\n');
+        return builder.toByteArray();
+    }
+
+    /**
+     * Returns how many voyage prints were served from the rendering cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getRenderCacheHits() {
+        return renderCacheHits.sum();
+    }
+
+    /**
+     * Returns how many voyage prints had to render the voyage again.
+     *
+     * @return The number of cache misses.
+     */
+    public long getRenderCacheMisses() {
+        return renderCacheMisses.sum();
     }
 
     /**
      * Refunds tickets for the specified voyage and seats.
      *
-     * @param voyageList The list of voyages.
-     * @param voyageID   The ID of the voyage.
-     * @param seats      The seat numbers to refund, separated by underscores.
-     */
-    public void refundTicket(List<Voyage> voyageList, int voyageID, String seats) {
-        String[] seatNumbers = seats.split("_");
-        Voyage a = null ;
-        boolean found = false;
-        float refundValue = 0;
-        for (Voyage voyage : voyageList) {
-            String voyageType = voyage.getClass().getSimpleName();
-            if (voyage.getVoyageID() == voyageID) {
-                found = true;
-                a = voyage;
-                if(voyageType == "Minibus"){
-                    FileOutput.writeToFile("ERROR: Minibus tickets are not refundable!",true,true);
-                    break;
-                }else {
-                    //It checks whether the seat is sold or not.
-                    if (isSeatSold(seatNumbers, voyage)) {
-                        for (String seat : seatNumbers) {
-                            voyage.getNumberOfSeats().set(Integer.parseInt(seat) - 1, "*");
-                            refundValue += voyage.getRefundCut(voyage.getSeatFee(Integer.parseInt(seat)));
-                            voyage.setRevenue(-voyage.getRefundCut(voyage.getSeatFee(Integer.parseInt(seat))));
-                        }
-                    }else {
-                        break;
+     * @param voyages  The registry of voyages.
+     * @param voyageID The ID of the voyage.
+     * @param seats    The seat numbers to refund.
+     */
+    public void refundTicket(VoyageRegistry voyages, int voyageID, SeatSelection seats) {
+        ReportRenderer content;
+        long stamp = enterJournal();
+        try {
+            content = refund(voyages, voyageID, seats);
+        } finally {
+            exitJournal(stamp);
+        }
+        if (content != null) {
+            content.writeLine();
+        }
+    }
+
+    /**
+     * Refunds the seats and records the refund in the journal.
+     *
+     * @return The renderer of the calling thread holding the message reporting the refund, null if an error has
+     *         been printed instead.
+     */
+    private ReportRenderer refund(VoyageRegistry voyages, int voyageID, SeatSelection seats) {
+        int[] seatList = seats.seats();
+        int count = seats.count();
+        long refundValue = 0;
+        Voyage voyage = voyages.get(voyageID);
+        if (voyage != null && voyage.getSeatMap().isLockFree() && voyage.getSeatMap().inOneWord(seatList, count)
+                && !(voyage instanceof Minibus) && enterLockFree(voyage)) {
+            //Lock-free seat maps release seats within one word with compare-and-set, the voyage lock is not needed
+            try {
+                if (!releaseSeats(seats, voyage)) {
+                    return null;
+                }
+                for (int i = 0; i < count; i++) {
+                    refundValue += voyage.getSeatRefund(seatList[i]);
+                }
+                voyage.addRefund(refundValue);
+                long counted = voyage.countSeats(seatList, count, -1);
+                if (journal != null) {
+                    journal.logRefund(voyageID, seatList, count);
+                }
+                tallyRefund(voyages, voyage, Voyage.seatsOf(counted), Voyage.premiumSeatsOf(counted), refundValue);
+                if (Metrics.ENABLED) {
+                    SEATS_REFUNDED.add(Voyage.seatsOf(counted));
+                }
+            } finally {
+                exitLockFree(voyageID);
+            }
+        } else {
+            ReentrantLock lock = lockFor(voyageID);
+            lock.lock();
+            try {
+                voyage = voyages.get(voyageID);
+                if (voyage == null){
+                    reportError(NO_SUCH_VOYAGE, "ERROR: There is no voyage with ID of " + voyageID + "!");
+                    return null;
+                }
+                if(voyage instanceof Minibus){
+                    reportError(NOT_REFUNDABLE, "ERROR: Minibus tickets are not refundable!");
+                    return null;
+                }
+                //It checks whether the seat is sold or not.
+                if (!isSeatSold(seats, voyage)) {
+                    return null;
+                }
+                SeatMap seatMap = voyage.getSeatMap();
+                //Lock-free refunds run again once the holds of the voyage have ended.
+                if (seatMap.isLockFree() && !releaseLocked(voyage, seatList, count)) {
+                    reportError(SEAT_ALREADY_EMPTY, "ERROR: One or more seats are already empty!");
+                    return null;
+                }
+                for (int i = 0; i < count; i++) {
+                    int seat = seatList[i];
+                    if (!seatMap.isLockFree()) {
+                        seatMap.release(seat);
                     }
-                    String content = String.format("Seat %s of the Voyage %d from %s to %s was successfully refunded for %.2f TL.",seats.replace("_","-"), voyageID, a.getFromWhere(),a.getToWhere(),refundValue);
-                    FileOutput.writeToFile(content,true,true);
+                    refundValue += voyage.getSeatRefund(seat);
                 }
+                voyage.addRefund(refundValue);
+                long counted = voyage.countSeats(seatList, count, -1);
+                if (journal != null) {
+                    journal.logRefund(voyageID, seatList, count);
+                }
+                tallyRefund(voyages, voyage, Voyage.seatsOf(counted), Voyage.premiumSeatsOf(counted), refundValue);
+                if (Metrics.ENABLED) {
+                    SEATS_REFUNDED.add(Voyage.seatsOf(counted));
+                }
+            } finally {
+                lock.unlock();
             }
         }
-        if (!found){
-            FileOutput.writeToFile("ERROR: There is no voyage with ID of " + voyageID + "!",true,true);
-        }
+        return seats.appendDashed(ReportRenderer.begin().append("Seat ")).append(" of the Voyage ").append(voyageID)
+                .append(" from ").append(voyage.getFromWhere()).append(" to ").append(voyage.getToWhere())
+                .append(" was successfully refunded for ").appendFixed(voyage.getPrintedRefund(seatList, count), 2)
+                .append(" TL.");
     }
 
     /**
@@ -132,167 +848,366 @@ public class BoxOffice {
      * @param row         The number of rows in the seating arrangement for the voyage.
      * @param refundCut   The percentage of refund cut.
      * @param premiumFee  The fee for premium seats (if applicable).
-     * @param infos       Additional information related to the voyage.
-     * @param voyageList  The list of voyages.
+     * @param voyageType  The type of the voyage: Standard, Premium or Minibus.
+     * @param voyages     The registry of voyages.
      */
-    public void initVoyage(int voyageID,String fromWhere,String toWhere,float seatFee, int row, float refundCut, float premiumFee, String[] infos, List<Voyage> voyageList){
-        String voyageType = infos[1];
+    public void initVoyage(int voyageID,String fromWhere,String toWhere,float seatFee, int row, float refundCut, float premiumFee, String voyageType, VoyageRegistry voyages){
         Voyage voyage ;
-        String content;
+        ReportRenderer content = ReportRenderer.begin();
+        //It initializes the voyage of the specified type.
+        switch (voyageType) {
+            case "Standard":
+                // Initialize a standard voyage
+                voyage = new Standard(voyageID, fromWhere, toWhere, seatFee, row, refundCut);
+                content.append("Voyage ").append(voyageID).append(" was initialized as a standard (2+2) voyage from ")
+                        .append(fromWhere).append(" to ").append(toWhere).append(" with ").appendFixed(seatFee, 2)
+                        .append(" TL priced ").append(row * 4).append(" regular seats. Note that refunds will be ")
+                        .appendFixed(refundCut, 0).append("% less than the paid amount.");
+                break;
+            case "Premium":
+                // Initialize a premium voyage
+                voyage = new Premium(voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee);
+                content.append("Voyage ").append(voyageID).append(" was initialized as a premium (1+2) voyage from ")
+                        .append(fromWhere).append(" to ").append(toWhere).append(" with ").appendFixed(seatFee, 2)
+                        .append(" TL priced ").append(row * 2).append(" regular seats and ")
+                        .appendFixed(voyage.getSeatFee(1), 2).append(" TL priced ").append(row)
+                        .append(" premium seats. Note that refunds will be ").appendFixed(refundCut, 0)
+                        .append("% less than the paid amount.");
+                break;
+            case "Minibus":
+                // Initialize a minibus voyage
+                voyage = new Minibus(voyageID, fromWhere, toWhere, seatFee, row);
+                content.append("Voyage ").append(voyageID).append(" was initialized as a minibus (2) voyage from ")
+                        .append(fromWhere).append(" to ").append(toWhere).append(" with ").appendFixed(seatFee, 2)
+                        .append(" TL priced ").append(row * 2)
+                        .append(" regular seats. Note that minibus tickets are not refundable.");
+                break;
+            default:
+                reportError(USAGE_ERROR, "ERROR: Erroneous usage of \"INIT_VOYAGE\" command!");
+                return;
+        }
+        //The registry refuses the voyage if another clerk has initialized the same ID in the meantime.
+        boolean added;
+        long stamp = enterJournal();
         try {
-            //It initializes the voyage of the specified type.
-            switch (voyageType) {
-                case "Standard":
-                    // Initialize a standard voyage
-                    voyage = new Standard(voyageID, fromWhere, toWhere, seatFee, row, refundCut);
-                    content = String.format("Voyage %s was initialized as a standard (2+2) voyage from %s to %s with %.2f TL priced %d regular seats. Note that refunds will be %.0f%% less than the paid amount.",voyageID,fromWhere,toWhere,seatFee,row*4,refundCut);
-                    FileOutput.writeToFile(content,true,true);
-                    break;
-                case "Premium":
-                    // Initialize a premium voyage
-                    voyage = new Premium(voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee);
-                    content = String.format("Voyage %s was initialized as a premium (1+2) voyage from %s to %s with %.2f TL priced %d regular seats and %.2f TL priced %d premium seats. Note that refunds will be %.0f%% less than the paid amount.",voyageID,fromWhere,toWhere,seatFee,row*2,voyage.getSeatFee(1),row,refundCut);
-                    FileOutput.writeToFile(content,true,true);
-                    break;
-                case "Minibus":
-                    // Initialize a minibus voyage
-                    voyage = new Minibus(voyageID, fromWhere, toWhere, seatFee, row);
-                    content = String.format("Voyage %s was initialized as a minibus (2) voyage from %s to %s with %.2f TL priced %d regular seats. Note that minibus tickets are not refundable.",voyageID,fromWhere,toWhere,seatFee,row*2);
-                    FileOutput.writeToFile(content,true,true);
-                    break;
-                default:
-                    throw new IllegalArgumentException();
-            }
-            voyageList.add(voyage);
-        }catch (IllegalArgumentException e){
-            FileOutput.writeToFile("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!",true,true);
+            added = voyages.add(voyage);
+            if (added && journal != null) {
+                journal.logInit(voyage);
+            }
+        } finally {
+            exitJournal(stamp);
+        }
+        if (!added) {
+            reportError(DUPLICATE_VOYAGE_ID, "ERROR: There is already a voyage with ID of " + voyageID + "!");
+            return;
         }
+        markChanged(voyageID);
+        if (Metrics.ENABLED) {
+            VOYAGES_INITIALIZED.increment();
+        }
+        content.writeLine();
     }
 
     /**
      * Cancels the voyage with the specified ID.
      *
-     * @param voyageList The list of voyages.
-     * @param voyageID   The ID of the voyage to cancel.
+     * @param voyages  The registry of voyages.
+     * @param voyageID The ID of the voyage to cancel.
      */
-    public void cancelVoyage(List<Voyage> voyageList, int voyageID){
+    public void cancelVoyage(VoyageRegistry voyages, int voyageID){
+        byte[] details;
+        long stamp = enterJournal();
         try {
-            int a = 0;
-            boolean found = false;
-            //Finds which voyage will be canceled
-            for (Voyage voyage : voyageList) {
-                if (voyage.getVoyageID() == voyageID) {
-                    found = true;
-                    a = voyageList.indexOf(voyage);
-                    for(int i = 0 ; i < voyage.getNumberOfSeats().size() ; i++) {
-                        if (voyage.getNumberOfSeats().get(i) == "X") {
-                            voyage.setRevenue(-voyage.getSeatFee(i + 1));
-                        }
-                    }
-                    FileOutput.writeToFile("Voyage " + voyageID + " was successfully cancelled!\nVoyage details can be found below:",true,true);
-                    voyagePrinter(voyageID,voyage);
-                }
+            details = cancel(voyages, voyageID);
+        } finally {
+            exitJournal(stamp);
+        }
+        //The cancellation is reported once it is in the journal.
+        if (details != null) {
+            ReportRenderer.begin().append("Voyage ").append(voyageID)
+                    .append(" was successfully cancelled!\nVoyage details can be found below:").writeLine();
+            FileOutput.writeBytes(details);
+        }
+    }
+
+    /**
+     * Cancels the voyage, pays back its sold seats and records the cancellation in the journal.
+     *
+     * @return The details of the cancelled voyage rendered under its lock, empty if the voyage is a view whose
+     *         record has been reused already, null if an error has been printed instead.
+     */
+    private byte[] cancel(VoyageRegistry voyages, int voyageID) {
+        ReentrantLock lock = lockFor(voyageID);
+        lock.lock();
+        try {
+            //Removes the voyage that will be canceled
+            Voyage voyage = voyages.remove(voyageID);
+            if (voyage == null) {
+                reportError(NO_SUCH_VOYAGE, "ERROR: There is no voyage with ID of " + voyageID + "!");
+                return null;
             }
-            //Deletes voyage if found
-            if (found)
-                voyageList.remove(a);
-        }catch (IndexOutOfBoundsException e){
-            FileOutput.writeToFile("ERROR: Erroneous usage of \"CANCEL_VOYAGE\" command!",true,true);
+            voyage.setCancelled();
+            holds.releaseAll(voyageID);
+            //Lock-free sales and refunds under way finish their counters and tallies before the counters are read,
+            //so the refund below pays back exactly the seats the clients were told they bought.
+            if (voyage.getSeatMap().isLockFree()) {
+                awaitLockFree(voyageID);
+            }
+            //The price of every sold seat is paid back, read from the running counters instead of the seats.
+            long paid = voyage.getSoldValue();
+            voyage.addRefund(paid);
+            if (journal != null) {
+                journal.logCancel(voyageID);
+            }
+            tallyRefund(voyages, voyage, voyage.getSeatsSold(), voyage.getPremiumSeatsSold(), paid);
+            if (Metrics.ENABLED) {
+                VOYAGES_CANCELLED.increment();
+            }
+            return voyage.isStale() ? new byte[0] : renderedDetails(voyageID, voyage);
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
      * Checks if the specified seats are available for refund.
      *
-     * @param seatNumbers The seat numbers to check.
-     * @param voyage      The voyage object.
+     * @param seats  The seat numbers to check.
+     * @param voyage The voyage object.
      * @return True if seats are sold, false otherwise.
      */
-    public boolean isSeatSold(String[] seatNumbers, Voyage voyage){
-        boolean available = false;
-        //It checks whether the seat is sold or not and prints any errors.
-        for(String seat : seatNumbers){
-            if (Integer.parseInt(seat) < 0){
-                FileOutput.writeToFile("ERROR: " + seat + " is not a positive integer, seat number must be a positive integer!",true,true);
-                available = false;
-                break;
+    public boolean isSeatSold(SeatSelection seats, Voyage voyage){
+        int[] seatList = seats.seats();
+        int count = seats.count();
+        SeatMap seatMap = voyage.getSeatMap();
+        //All seats exist and are sold in the common case, which is answered without looking at each seat separately.
+        //An empty selection goes through the seats one by one, which report nothing for it.
+        if (count > 0 && seatMap.allExist(seatList, count) && seatMap.countSold(seatList, count) == count) {
+            return true;
+        }
+        //Otherwise it prints the error of the first seat that is not sold.
+        for (int i = 0; i < count; i++) {
+            if (seatList[i] < 0){
+                reportError(NEGATIVE_SEAT, "ERROR: " + seats.token(i) + " is not a positive integer, seat number must be a positive integer!");
+                return false;
             }
-            if (Integer.parseInt(seat) <= voyage.getNumberOfSeats().size()){
-                if(voyage.getNumberOfSeats().get(Integer.parseInt(seat) - 1) == "X"){
-                    available = true;
-                }else {
-                    FileOutput.writeToFile("ERROR: One or more seats are already empty!",true,true);
-                    available = false;
-                    break;
-                }
-            }else{
-                FileOutput.writeToFile("ERROR: There is no such a seat!",true,true);
-                available = false;
-                break;
+            if (!seatMap.exists(seatList[i])){
+                reportError(NO_SUCH_SEAT, "ERROR: There is no such a seat!");
+                return false;
+            }
+            if (!seatMap.isSold(seatList[i])){
+                reportError(SEAT_ALREADY_EMPTY, "ERROR: One or more seats are already empty!");
+                return false;
             }
         }
-        return available;
+        return false;
     }
 
     /**
-     * Generates the Z report containing details of all voyages and their revenues.
+     * Generates the Z report containing details of all voyages and their revenues. In delta mode, only the voyages
+     * that changed since the previous report are printed.
      *
-     * @param voyageList The list of voyages.
+     * @param voyages  The registry of voyages.
+     * @param lastLine True if the report is the last output of the program.
      */
-    public void zReport(List<Voyage> voyageList,boolean lastLine){
-        //Checks if voyageList is empty, prints if not empty
-        if(!voyageList.isEmpty()) {
-            Collections.sort(voyageList, new Comparator<Voyage>() {
-                @Override
-                public int compare(Voyage v1, Voyage v2) {
-                    return Integer.compare(v1.getVoyageID(), v2.getVoyageID());
-                }
-            });
+    public void zReport(VoyageRegistry voyages,boolean lastLine){
+        zReport(voyages, lastLine, false);
+    }
+
+    /**
+     * Generates the Z report, printing every voyage if it is a full report or delta mode is off, and only the
+     * voyages that changed since the previous report otherwise. The first report of a run is always a full one, as
+     * there is no earlier report for a delta to start from.
+     *
+     * @param voyages  The registry of voyages.
+     * @param lastLine True if the report is the last output of the program.
+     * @param full     True to print every voyage even in delta mode.
+     */
+    public void zReport(VoyageRegistry voyages, boolean lastLine, boolean full) {
+        if (changed != null && reported && !full) {
+            deltaReport(voyages, lastLine);
+        } else {
+            if (changed != null) {
+                //A voyage that changes from now on is printed by the next delta, even if this report shows it too.
+                changed.clear();
+                reported = true;
+            }
+            fullReport(voyages, lastLine);
+        }
+        //The summary is read from the running tallies, so it costs the same whatever the number of seats.
+        if (SUMMARY) {
+            summaryPrinter(voyages, lastLine);
+        }
+    }
+
+    /**
+     * Prints every voyage and its revenue.
+     */
+    private void fullReport(VoyageRegistry voyages, boolean lastLine) {
+        //Takes the voyages ordered by VoyageID as they are now, so clerks can keep selling during the report.
+        //A catalog is walked record by record instead of being materialized as a whole.
+        Iterator<Voyage> iterator = voyages.iterator();
+        //Checks if the registry is empty, prints if not empty
+        if(iterator.hasNext()) {
             //Prints each voyage one by one
-            for (Voyage voyage : voyageList) {
-                voyagePrinter(voyage.getVoyageID(), voyage);
-                if (lastLine && voyage.equals(voyageList.get(voyageList.size() - 1)))
+            while (iterator.hasNext()) {
+                Voyage voyage = iterator.next();
+                if (!voyagePrinter(voyage.getVoyageID(), voyage)) {
+                    continue;
+                }
+                if (lastLine && !iterator.hasNext() && !SUMMARY)
                     FileOutput.writeToFile("----------------",true,false);
                 else
                     FileOutput.writeToFile("----------------",true,true);
             }
         }else {
-            if (lastLine)
+            if (lastLine && !SUMMARY)
                 FileOutput.writeToFile("No Voyages Available!\n----------------",true,false);
             else
                 FileOutput.writeToFile("No Voyages Available!\n----------------",true,true);
         }
     }
 
+    /**
+     * Prints the voyages that changed since the previous report in ascending order of their IDs, a line for each
+     * one cancelled since, and then the number of voyages left out. It costs time in proportion to the changed
+     * voyages, not to the size of the registry.
+     */
+    private void deltaReport(VoyageRegistry voyages, boolean lastLine) {
+        //Each ID is taken out before its voyage is printed, so a change made meanwhile is printed again next time.
+        int[] voyageIDs = new int[changed.size()];
+        int count = 0;
+        for (Iterator<Integer> iterator = changed.iterator(); iterator.hasNext(); ) {
+            if (count == voyageIDs.length) {
+                voyageIDs = Arrays.copyOf(voyageIDs, count * 2 + 1);
+            }
+            voyageIDs[count++] = iterator.next();
+            iterator.remove();
+        }
+        Arrays.sort(voyageIDs, 0, count);
+        int printed = 0;
+        for (int i = 0; i < count; i++) {
+            int voyageID = voyageIDs[i];
+            Voyage voyage = voyages.get(voyageID);
+            if (voyage != null && voyagePrinter(voyageID, voyage)) {
+                printed++;
+            } else {
+                ReportRenderer.begin().append("Voyage ").append(voyageID).append(" was cancelled.").writeLine();
+            }
+            FileOutput.writeToFile("----------------",true,true);
+        }
+        int total = voyages.size();
+        boolean newLine = !lastLine || SUMMARY;
+        if (total == 0) {
+            FileOutput.writeToFile("No Voyages Available!\n----------------",true,newLine);
+        } else {
+            int unchanged = Math.max(0, total - printed);
+            FileOutput.writeToFile(unchanged + (unchanged == 1 ? " voyage" : " voyages")
+                    + " unchanged since the last report.\n----------------",true,newLine);
+        }
+    }
+
+    /**
+     * Prints the sales summary of the run: the totals of the box office followed by one line per route.
+     *
+     * @param voyages  The registry of voyages, which keeps the tallies of the routes.
+     * @param lastLine True if the summary is the last output of the program.
+     */
+    public void summaryPrinter(VoyageRegistry voyages, boolean lastLine) {
+        ReportRenderer.begin().append("Summary:").writeLine();
+        ReportRenderer.begin().append("Seats sold: ").append(totals.getSeatsSold()).append(" (")
+                .append(totals.getPremiumSeatsSold()).append(" premium)").writeLine();
+        ReportRenderer.begin().append("Gross sales: ").appendMoney(totals.getGrossSales()).append(" TL").writeLine();
+        ReportRenderer.begin().append("Refunds paid: ").appendMoney(totals.getRefundsPaid()).append(" TL").writeLine();
+        ReportRenderer.begin().append("Net revenue: ").appendMoney(totals.getNetRevenue()).append(" TL").writeLine();
+        for (SalesTally route : voyages.routeTallies()) {
+            ReportRenderer.begin().append(route.getFromWhere()).append(" to ").append(route.getToWhere())
+                    .append(": ").append(route.getSeatsSold()).append(" seats sold (")
+                    .append(route.getPremiumSeatsSold()).append(" premium), ").appendMoney(route.getGrossSales())
+                    .append(" TL gross, ").appendMoney(route.getRefundsPaid()).append(" TL refunded, ")
+                    .appendMoney(route.getNetRevenue()).append(" TL net").writeLine();
+        }
+        FileOutput.writeToFile("----------------",true,!lastLine);
+    }
+
     /**
      * Checks if the specified seats are available for sale.
      *
-     * @param seatNumbers The seat numbers to check.
-     * @param voyage      The voyage object.
+     * @param seats  The seat numbers to check.
+     * @param voyage The voyage object.
      * @return True if seats are available, false otherwise.
      */
-    public boolean isSeatAvailable(String[] seatNumbers, Voyage voyage){
-        boolean available = false;
-        //It checks whether the seat is available or not and prints an error if there is an error.
-        for(String seat : seatNumbers){
-            if (Integer.parseInt(seat) < 0){
-                FileOutput.writeToFile("ERROR: " + seat + " is not a positive integer, seat number must be a positive integer!",true,true);
-                break;
+    public boolean isSeatAvailable(SeatSelection seats, Voyage voyage){
+        int[] seatList = seats.seats();
+        int count = seats.count();
+        SeatMap seatMap = voyage.getSeatMap();
+        //All seats exist and are free in the common case, which is answered without looking at each seat separately.
+        //An empty selection goes through the seats one by one, which report nothing for it.
+        if (count > 0 && seatMap.allExist(seatList, count) && seatMap.countSold(seatList, count) == 0
+                && !holds.anyHeld(voyage.getVoyageID(), seatList, count)) {
+            return true;
+        }
+        //Otherwise it prints the error of the first seat that cannot be sold.
+        for (int i = 0; i < count; i++) {
+            if (seatList[i] < 0){
+                reportError(NEGATIVE_SEAT, "ERROR: " + seats.token(i) + " is not a positive integer, seat number must be a positive integer!");
+                return false;
             }
-            if (Integer.parseInt(seat) <= voyage.getNumberOfSeats().size()){
-                if(voyage.getNumberOfSeats().get(Integer.parseInt(seat) - 1) == "*"){
-                    available = true;
-                }else {
-                    FileOutput.writeToFile("ERROR: One or more seats already sold!",true,true);
-                    available = false;
-                    break;
-                }
-            }else{
-                FileOutput.writeToFile("ERROR: There is no such a seat!",true,true);
-                available = false;
-                break;
+            if (!seatMap.exists(seatList[i])){
+                reportError(NO_SUCH_SEAT, "ERROR: There is no such a seat!");
+                return false;
+            }
+            if (seatMap.isSold(seatList[i])){
+                reportError(SEAT_ALREADY_SOLD, "ERROR: One or more seats already sold!");
+                return false;
             }
+            if (holds.isHeld(voyage.getVoyageID(), seatList[i])) {
+                reportError(SEAT_ON_HOLD, "ERROR: One or more seats are on hold!");
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims the seats of a lock-free seat map, printing an error if they cannot be sold.
+     *
+     * @param seats  The seat numbers.
+     * @param voyage The voyage object.
+     * @return True if all seats were claimed, false otherwise.
+     */
+    private boolean claimSeats(SeatSelection seats, Voyage voyage) {
+        int[] seatList = seats.seats();
+        int count = seats.count();
+        SeatMap seatMap = voyage.getSeatMap();
+        if (count > 0 && seatMap.allExist(seatList, count) && seatMap.claim(seatList, count)) {
+            return true;
+        }
+        if (isSeatAvailable(seats, voyage)) {
+            //The claim lost a race for a seat that has been refunded again since.
+            reportError(SEAT_ALREADY_SOLD, "ERROR: One or more seats already sold!");
+        }
+        return false;
+    }
+
+    /**
+     * Releases the seats of a lock-free seat map, printing an error if they cannot be refunded.
+     *
+     * @param seats  The seat numbers.
+     * @param voyage The voyage object.
+     * @return True if all seats were released, false otherwise.
+     */
+    private boolean releaseSeats(SeatSelection seats, Voyage voyage) {
+        int[] seatList = seats.seats();
+        int count = seats.count();
+        SeatMap seatMap = voyage.getSeatMap();
+        if (count > 0 && seatMap.allExist(seatList, count) && seatMap.releaseAll(seatList, count)) {
+            return true;
+        }
+        if (isSeatSold(seats, voyage)) {
+            //The release lost a race for a seat that has been sold again since.
+            reportError(SEAT_ALREADY_EMPTY, "ERROR: One or more seats are already empty!");
         }
-        return available;
+        return false;
     }
-}
\ No newline at end of file
+}
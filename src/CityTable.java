@@ -0,0 +1,77 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CityTable interns city names. Every distinct name gets a dense int ID and one canonical String instance, so
+ * millions of voyages between a few hundred cities share a few hundred Strings, and routes can be keyed by two
+ * ints instead of two Strings.
+ * Lookups are safe from many threads without a lock; new names are added under the lock of the table.
+ */
+public class CityTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+
+    /**
+     * Returns the ID of the city, adding the city if it is new.
+     *
+     * @param name The name of the city.
+     * @return The ID of the city.
+     */
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    /**
+     * Returns the ID of a city without adding it.
+     *
+     * @param name The name of the city.
+     * @return The ID of the city, -1 if the city is unknown.
+     */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the canonical instance of the name, adding the city if it is new.
+     *
+     * @param name The name of the city.
+     * @return The interned name, equal to the given one.
+     */
+    public String intern(String name) {
+        int id = id(name); //Taken first, as adding the name may replace the array.
+        return names[id];
+    }
+
+    /**
+     * Returns the name of a city.
+     *
+     * @param id The ID of the city.
+     * @return The interned name.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int add(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int next = ids.size();
+        String[] current = names;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, next << 1);
+        }
+        current[next] = name;
+        names = current; //Published before the ID, so a reader that finds the ID finds the name too.
+        ids.put(name, next);
+        return next;
+    }
+}
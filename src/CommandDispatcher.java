@@ -0,0 +1,365 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CommandDispatcher executes command lines against a BoxOffice. The first field of a line selects a handler from
+ * a table; the handler reads the remaining fields from a reusable CommandTokenizer and returns a result code.
+ * Every error is reported from its code, so no exception is thrown to steer the control flow.
+ * A dispatcher keeps its tokenizer between lines, so every thread needs its own dispatcher.
+ */
+public class CommandDispatcher {
+    static final int OK = 0;
+    static final int UNKNOWN_COMMAND = 1;
+    static final int USAGE_ERROR = 2;
+    static final int NEGATIVE_VOYAGE_ID = 3;
+    static final int DUPLICATE_VOYAGE_ID = 4;
+    static final int NO_SUCH_VOYAGE = 5;
+    static final int NEGATIVE_ROWS = 6;
+    static final int NEGATIVE_PRICE = 7;
+    static final int NEGATIVE_PREMIUM_FEE = 8;
+    static final int REFUND_CUT_OUT_OF_RANGE = 9;
+    static final int NO_MANUAL_CLOCK = 10;
+    //The names of the result codes, under which their errors are counted.
+    private static final String[] CODE_NAMES = {"OK", "UNKNOWN_COMMAND", "USAGE_ERROR", "NEGATIVE_VOYAGE_ID",
+            "DUPLICATE_VOYAGE_ID", "NO_SUCH_VOYAGE", "NEGATIVE_ROWS", "NEGATIVE_PRICE", "NEGATIVE_PREMIUM_FEE",
+            "REFUND_CUT_OUT_OF_RANGE", "NO_MANUAL_CLOCK"};
+    //How long HOLD keeps the seats when the command does not say.
+    private static final int DEFAULT_HOLD_SECONDS = 300;
+
+    /**
+     * A handler of one command.
+     */
+    private interface CommandHandler {
+        /**
+         * Executes the command held by the tokenizer.
+         *
+         * @param command  The tokenized command line.
+         * @param lastLine True if the line is the last line of the input.
+         * @return OK if the command has written its own output, the code of the error otherwise.
+         */
+        int execute(CommandTokenizer command, boolean lastLine);
+    }
+
+    //The commands ordered by how often they appear in a usual input, so the table is scanned in that order.
+    private static final String[] NAMES = {"SELL_TICKET", "REFUND_TICKET", "PRINT_VOYAGE", "INIT_VOYAGE", "CANCEL_VOYAGE", "Z_REPORT", "SELL_BEST", "QUERY_ROUTE", "HOLD", "CONFIRM", "RELEASE", "ADVANCE_CLOCK"};
+    //The command names used by the usage errors, the INIT_VOYAGE one is kept as it has always been printed.
+    private static final String[] USAGE_NAMES = {"SELL_TICKET", "REFUND_TICKET", "PRINT_VOYAGE", "INIT_VOYAGEf", "CANCEL_VOYAGE", "Z_REPORT", "SELL_BEST", "QUERY_ROUTE", "HOLD", "CONFIRM", "RELEASE", "ADVANCE_CLOCK"};
+    private final CommandHandler[] handlers = {this::sellTicket, this::refundTicket, this::printVoyage,
+            this::initVoyage, this::cancelVoyage, this::zReport, this::sellBest,
+            this::queryRoute, this::hold, this::confirm, this::release, this::advanceClock};
+    //The latency of every command by handler, the last one is for unknown commands.
+    private static final LatencyHistogram[] LATENCIES = new LatencyHistogram[NAMES.length + 1];
+    private static final LongAdder[] ERRORS = new LongAdder[CODE_NAMES.length];
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            LATENCIES[i] = Metrics.histogram("command." + NAMES[i]);
+        }
+        LATENCIES[NAMES.length] = Metrics.histogram("command.UNKNOWN");
+        for (int i = 1; i < CODE_NAMES.length; i++) {
+            ERRORS[i] = Metrics.counter("error." + CODE_NAMES[i]);
+        }
+    }
+
+    private final BoxOffice boxOffice;
+    private final VoyageRegistry voyages;
+    private final CommandTokenizer command = new CommandTokenizer();
+    private int errorValue;
+    private float errorNumber;
+
+    /**
+     * Constructs a CommandDispatcher.
+     *
+     * @param boxOffice The BoxOffice object managing voyage operations.
+     * @param voyages   The registry of voyages to operate on.
+     */
+    public CommandDispatcher(BoxOffice boxOffice, VoyageRegistry voyages) {
+        this.boxOffice = boxOffice;
+        this.voyages = voyages;
+    }
+
+    /**
+     * Executes a single command line and writes its output, including the echo of the command.
+     *
+     * @param line     The command line.
+     * @param lastLine True if the line is the last line of the input.
+     */
+    public void execute(String line, boolean lastLine) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        ReportRenderer.begin().append("COMMAND: ").append(line).writeLine();
+        command.reset(line);
+        //Holds that are due expire before the command can see their seats.
+        boxOffice.expireHolds();
+        int handler = command.fieldCount() == 0 ? -1 : find();
+        if (handler < 0) {
+            report(UNKNOWN_COMMAND, null);
+        } else {
+            int code = handlers[handler].execute(command, lastLine);
+            if (code != OK) {
+                report(code, USAGE_NAMES[handler]);
+            }
+        }
+        if (Metrics.ENABLED) {
+            LATENCIES[handler < 0 ? NAMES.length : handler].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Finds the handler of the command by its first field.
+     *
+     * @return The index of the handler, -1 if there is no such command.
+     */
+    private int find() {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (command.fieldEquals(0, NAMES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the error message of a result code.
+     *
+     * @param code      The result code.
+     * @param usageName The command name used by usage errors.
+     */
+    private void report(int code, String usageName) {
+        if (Metrics.ENABLED && code < ERRORS.length) {
+            ERRORS[code].increment();
+        }
+        ReportRenderer message = ReportRenderer.begin();
+        switch (code) {
+            case UNKNOWN_COMMAND:
+                message.append("ERROR: There is no command namely ").append(command.fieldCount() == 0 ? "" : command.field(0)).append('!');
+                break;
+            case USAGE_ERROR:
+                message.append("ERROR: Erroneous usage of \"").append(usageName).append("\" command!");
+                break;
+            case NEGATIVE_VOYAGE_ID:
+                message.append("ERROR: ").append(errorValue).append(" is not a positive integer, ID of a voyage must be a positive integer!");
+                break;
+            case DUPLICATE_VOYAGE_ID:
+                message.append("ERROR: There is already a voyage with ID of ").append(errorValue).append('!');
+                break;
+            case NO_SUCH_VOYAGE:
+                message.append("ERROR: There is no voyage with ID of ").append(errorValue).append('!');
+                break;
+            case NEGATIVE_ROWS:
+                message.append("ERROR: ").append(errorValue).append(" is not a positive integer, number of seat rows of a voyage must be a positive integer!");
+                break;
+            case NEGATIVE_PRICE:
+                message.append("ERROR: ").appendNumber(errorNumber).append(" is not a positive number, price must be a positive number!");
+                break;
+            case NEGATIVE_PREMIUM_FEE:
+                message.append("ERROR: ").appendNumber(errorNumber).append(" is not a non-negative integer, premium fee must be a non-negative integer!");
+                break;
+            case REFUND_CUT_OUT_OF_RANGE:
+                message.append("ERROR: ").appendNumber(errorNumber).append(" is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!");
+                break;
+            case NO_MANUAL_CLOCK:
+                message.append("ERROR: The clock can only be advanced when it is a manual clock!");
+                break;
+            default:
+                throw new IllegalStateException("Unknown result code: " + code);
+        }
+        message.writeLine();
+    }
+
+    private int fail(int code, int value) {
+        errorValue = value;
+        return code;
+    }
+
+    private int fail(int code, float value) {
+        errorNumber = value;
+        return code;
+    }
+
+    private int initVoyage(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() < 3) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(2);
+        if (voyageID < 0) {
+            return fail(NEGATIVE_VOYAGE_ID, voyageID);
+        }
+        //If the voyage ID already exists, it prints an error.
+        if (voyages.contains(voyageID)) {
+            return fail(DUPLICATE_VOYAGE_ID, voyageID);
+        }
+        if (command.fieldCount() < 6) {
+            return USAGE_ERROR;
+        }
+        int row = command.intField(5);
+        if (row < 0) {
+            return fail(NEGATIVE_ROWS, row);
+        }
+        if (command.fieldCount() < 7) {
+            return USAGE_ERROR;
+        }
+        float seatFee = command.floatField(6);
+        if (seatFee < 0) {
+            return fail(NEGATIVE_PRICE, seatFee);
+        }
+        float premiumFee = 0, refundCut = 0;
+        //If they exist, it reads the premium fee and refund cut values.
+        if (command.fieldCount() > 8) {
+            premiumFee = command.floatField(8);
+            if (premiumFee < 0) {
+                return fail(NEGATIVE_PREMIUM_FEE, premiumFee);
+            }
+        }
+        if (command.fieldCount() > 7) {
+            refundCut = command.floatField(7);
+            if (refundCut < 0 || refundCut > 100) {
+                return fail(REFUND_CUT_OUT_OF_RANGE, refundCut);
+            }
+        }
+        boxOffice.initVoyage(voyageID, command.field(3), command.field(4), seatFee, row, refundCut, premiumFee,
+                command.field(1), voyages);
+        return OK;
+    }
+
+    private int zReport(CommandTokenizer command, boolean lastLine) {
+        boolean full = command.fieldCount() == 2 && command.fieldEquals(1, "FULL");
+        if (command.fieldCount() > 1 && !full) {
+            return USAGE_ERROR;
+        }
+        FileOutput.writeToFile("Z Report:\n----------------",true,true);
+        boxOffice.zReport(voyages, lastLine, full);
+        FileOutput.flush();
+        return OK;
+    }
+
+    private int sellTicket(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() != 3) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(1);
+        if (!voyages.contains(voyageID)) {
+            return fail(NO_SUCH_VOYAGE, voyageID);
+        }
+        boxOffice.sellTicket(voyages, voyageID, command.seatField(2));
+        return OK;
+    }
+
+    private int sellBest(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() < 3 || command.fieldCount() > 4) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(1);
+        if (!voyages.contains(voyageID)) {
+            return fail(NO_SUCH_VOYAGE, voyageID);
+        }
+        int count = command.intField(2);
+        int preference = command.fieldCount() == 4 ? BestAvailable.parsePreference(command.field(3)) : BestAvailable.ANY;
+        if (count <= 0 || preference < 0) {
+            return USAGE_ERROR;
+        }
+        boxOffice.sellBest(voyages, voyageID, count, preference);
+        return OK;
+    }
+
+    private int hold(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() < 3 || command.fieldCount() > 4) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(1);
+        if (!voyages.contains(voyageID)) {
+            return fail(NO_SUCH_VOYAGE, voyageID);
+        }
+        int seconds = command.fieldCount() == 4 ? command.intField(3) : DEFAULT_HOLD_SECONDS;
+        if (seconds <= 0) {
+            return USAGE_ERROR;
+        }
+        boxOffice.holdSeats(voyages, voyageID, command.seatField(2), seconds);
+        return OK;
+    }
+
+    private int confirm(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() != 2) {
+            return USAGE_ERROR;
+        }
+        boxOffice.confirmHold(voyages, command.intField(1));
+        return OK;
+    }
+
+    private int release(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() != 2) {
+            return USAGE_ERROR;
+        }
+        boxOffice.releaseHold(voyages, command.intField(1));
+        return OK;
+    }
+
+    private int advanceClock(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() != 2) {
+            return USAGE_ERROR;
+        }
+        int seconds = command.intField(1);
+        if (seconds < 0) {
+            return USAGE_ERROR;
+        }
+        if (!(boxOffice.getClock() instanceof ManualClock)) {
+            return NO_MANUAL_CLOCK;
+        }
+        ((ManualClock) boxOffice.getClock()).advance(seconds * 1000L);
+        int expired = boxOffice.expireHolds();
+        ReportRenderer.begin().append("The clock was advanced by ").append(seconds).append(seconds == 1 ? " second, " : " seconds, ")
+                .append(expired).append(expired == 1 ? " hold expired." : " holds expired.").writeLine();
+        return OK;
+    }
+
+    private int queryRoute(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() != 3) {
+            return USAGE_ERROR;
+        }
+        boxOffice.queryRoute(voyages, command.field(1), command.field(2));
+        return OK;
+    }
+
+    private int cancelVoyage(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() < 2) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(1);
+        if (command.fieldCount() > 2) {
+            return USAGE_ERROR;
+        }
+        if (voyageID < 0) {
+            return fail(NEGATIVE_VOYAGE_ID, voyageID);
+        }
+        if (!voyages.contains(voyageID)) {
+            return fail(NO_SUCH_VOYAGE, voyageID);
+        }
+        boxOffice.cancelVoyage(voyages, voyageID);
+        return OK;
+    }
+
+    private int printVoyage(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() < 2) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(1);
+        if (voyageID < 0) {
+            return fail(NEGATIVE_VOYAGE_ID, voyageID);
+        }
+        Voyage voyage = voyages.get(voyageID);
+        if (voyage == null) {
+            return fail(NO_SUCH_VOYAGE, voyageID);
+        }
+        return boxOffice.voyagePrinter(voyageID, voyage) ? OK : fail(NO_SUCH_VOYAGE, voyageID);
+    }
+
+    private int refundTicket(CommandTokenizer command, boolean lastLine) {
+        if (command.fieldCount() < 2) {
+            return USAGE_ERROR;
+        }
+        int voyageID = command.intField(1);
+        if (command.fieldCount() < 3) {
+            return USAGE_ERROR;
+        }
+        boxOffice.refundTicket(voyages, voyageID, command.seatField(2));
+        return OK;
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * CommandReader streams the lines of an input file one by one. It keeps exactly one line of lookahead,
+ * so callers can tell whether the line they are processing is the last one without holding the whole file.
+ */
+public class CommandReader implements Iterator<String>, Closeable {
+    private final BufferedReader reader;
+    private final boolean discardEmptyLines;
+    private final boolean trim;
+    private String nextLine;
+    private String lastLine;
+
+    /**
+     * Constructs a CommandReader over the given reader.
+     *
+     * @param reader            The reader the lines are taken from.
+     * @param discardEmptyLines If true, discards empty lines with respect to trim.
+     * @param trim              If true, trims each line; else, it leaves each line as-is.
+     */
+    public CommandReader(BufferedReader reader, boolean discardEmptyLines, boolean trim) {
+        this.reader = reader;
+        this.discardEmptyLines = discardEmptyLines;
+        this.trim = trim;
+        this.nextLine = readAhead();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    @Override
+    public String next() {
+        if (nextLine == null) {
+            throw new NoSuchElementException();
+        }
+        lastLine = nextLine;
+        nextLine = readAhead();
+        return lastLine;
+    }
+
+    /**
+     * Returns the most recent line handed out by next().
+     *
+     * @return The last line read, null if no line has been read yet.
+     */
+    public String getLastLine() {
+        return lastLine;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the next line that survives the empty line and trim rules.
+     *
+     * @return The next line, null at the end of the input.
+     */
+    private String readAhead() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (discardEmptyLines && line.trim().isEmpty()) { //Skips the lines that are empty with respect to trim.
+                    continue;
+                }
+                return trim ? line.trim() : line;
+            }
+        } catch (IOException e) { //Treats an unreadable rest of the file as the end of the input.
+            e.printStackTrace();
+        }
+        close();
+        return null;
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * CommandTokenizer splits a tab-separated command line into fields without creating a String per field.
+ * It only records where each field starts and ends; numbers are parsed straight from the line.
+ * A tokenizer is reused for every line, so it must not be shared between threads.
+ */
+public class CommandTokenizer {
+    private static final int MAX_FAST_DIGITS = 9;
+
+    private String line = "";
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fieldCount;
+    private final SeatSelection seats = new SeatSelection();
+
+    /**
+     * Splits the line into fields, replacing the previous line. Empty fields at the end are dropped
+     * as String.split drops them.
+     *
+     * @param line The command line.
+     */
+    public void reset(String line) {
+        this.line = line;
+        fieldCount = 0;
+        int start = 0;
+        boolean separated = false;
+        for (int i = 0, n = line.length(); i <= n; i++) {
+            if (i == n || line.charAt(i) == '\t') {
+                if (fieldCount == starts.length) {
+                    starts = Arrays.copyOf(starts, fieldCount << 1);
+                    ends = Arrays.copyOf(ends, fieldCount << 1);
+                }
+                starts[fieldCount] = start;
+                ends[fieldCount] = i;
+                fieldCount++;
+                start = i + 1;
+                separated |= i < n;
+            }
+        }
+        if (separated) {
+            while (fieldCount > 0 && starts[fieldCount - 1] == ends[fieldCount - 1]) {
+                fieldCount--;
+            }
+        }
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Checks whether the field is exactly the given text.
+     *
+     * @param index The index of the field.
+     * @param text  The text to compare with.
+     * @return True if the field equals the text, false otherwise.
+     */
+    public boolean fieldEquals(int index, String text) {
+        int length = ends[index] - starts[index];
+        return length == text.length() && line.regionMatches(starts[index], text, 0, length);
+    }
+
+    /**
+     * Returns the field as a new String. Meant for the fields that are kept, such as city names.
+     *
+     * @param index The index of the field.
+     * @return The field.
+     */
+    public String field(int index) {
+        return line.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * Appends the field to the builder.
+     *
+     * @param builder The builder to append to.
+     * @param index   The index of the field.
+     * @return The builder.
+     */
+    public StringBuilder appendField(StringBuilder builder, int index) {
+        return builder.append(line, starts[index], ends[index]);
+    }
+
+    /**
+     * Parses the field as an int with the rules of Integer.parseInt.
+     *
+     * @param index The index of the field.
+     * @return The parsed value.
+     * @throws NumberFormatException If the field is not an int, as Integer.parseInt would.
+     */
+    public int intField(int index) {
+        return parseInt(line, starts[index], ends[index]);
+    }
+
+    /**
+     * Parses the field as a float with the rules of Float.parseFloat.
+     *
+     * @param index The index of the field.
+     * @return The parsed value.
+     */
+    public float floatField(int index) {
+        return Float.parseFloat(field(index));
+    }
+
+    /**
+     * Parses the field as seat numbers separated by underscores into the reusable selection of this tokenizer.
+     *
+     * @param index The index of the field.
+     * @return The selection, valid until the next call.
+     */
+    public SeatSelection seatField(int index) {
+        seats.parse(line, starts[index], ends[index]);
+        return seats;
+    }
+
+    /**
+     * Parses an int from a part of a text with the rules of Integer.parseInt. Short ASCII numbers are parsed in place;
+     * anything else is handed to Integer.parseInt.
+     *
+     * @param text  The text.
+     * @param start The start of the number.
+     * @param end   The end of the number, exclusive.
+     * @return The parsed value.
+     * @throws NumberFormatException If the text is not an int, as Integer.parseInt would.
+     */
+    static int parseInt(String text, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        int digits = end - i;
+        if (digits > 0 && digits <= MAX_FAST_DIGITS) {
+            int value = 0;
+            for (; i < end; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+            }
+            if (i == end) {
+                return negative ? -value : value;
+            }
+        }
+        return Integer.parseInt(text.substring(start, end));
+    }
+}
@@ -1,15 +1,57 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * FileOutput owns the single output channel of a run. The file is opened once and every write goes through
+ * one long-lived buffered stream, which is flushed at explicit flush points (Z_REPORT) and closed at shutdown.
+ * Writes are safe from many threads. A thread can also capture its own writes with beginCapture and endCapture,
+ * so the whole response of a command can be published at once instead of interleaving with other threads.
+ * With -Dbooking.output.async=true the buffer is a ring drained by a writer thread of its own, so writes and
+ * flushes never wait for the disk unless the ring is full.
+ */
 public class FileOutput {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NEW_LINE = {'\n'};
+
     private static String defaultPath = "o11.txt"; // Default path initially empty
+    private static int bufferSize = Integer.getInteger("booking.output.bufferSize", DEFAULT_BUFFER_SIZE);
+    private static final boolean ASYNC = Boolean.getBoolean("booking.output.async");
+    private static OutputStream out;
+    private static boolean shutdownHookRegistered = false;
+    private static final ThreadLocal<Capture> captures = ThreadLocal.withInitial(Capture::new);
+    private static final LatencyHistogram FLUSH_LATENCY = Metrics.histogram("io.flush");
+
+    /**
+     * Capture is the private output buffer of a thread.
+     */
+    private static final class Capture {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        boolean active;
+    }
 
     public static void main(String[] args) {
         if (args.length >= 2) {
             defaultPath = args[1];
         }
     }
+
+    /**
+     * Sets the size of the output buffer. It only affects the channel opened after this call.
+     *
+     * @param size Buffer size in bytes, must be positive.
+     */
+    public static void setBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Output buffer size must be positive: " + size);
+        }
+        bufferSize = size;
+    }
+
     public static void writeToFile(Object content, boolean append, boolean newLine) {
         /**
          * This method writes given content to file at given path.
@@ -19,17 +61,145 @@ public class FileOutput {
          * @param append  Append status, true if wanted to append to file if it exists, false if wanted to create file from zero.
          * @param newLine True if wanted to append a new line after content, false if vice versa.
          */
-        PrintStream ps = null;
+        byte[] bytes = String.valueOf(content).getBytes(StandardCharsets.UTF_8);
+        Capture capture = captures.get();
+        if (capture.active && append) {
+            capture.buffer.write(bytes, 0, bytes.length);
+            if (newLine) {
+                capture.buffer.write('\n');
+            }
+            return;
+        }
+        write(bytes, 0, bytes.length, append, newLine);
+    }
+
+    /**
+     * Writes the given bytes to the file as they are.
+     *
+     * @param content Content that is going to be written to file, already encoded as UTF-8.
+     */
+    public static void writeBytes(byte[] content) {
+        writeBytes(content, 0, content.length);
+    }
+
+    /**
+     * Writes a part of the given bytes to the file as they are.
+     *
+     * @param content Content that is going to be written to file, already encoded as UTF-8.
+     * @param offset  The index of the first byte to write.
+     * @param length  The number of bytes to write.
+     */
+    public static void writeBytes(byte[] content, int offset, int length) {
+        Capture capture = captures.get();
+        if (capture.active) {
+            capture.buffer.write(content, offset, length);
+            return;
+        }
+        write(content, offset, length, true, false);
+    }
+
+    /**
+     * Starts capturing the writes of the calling thread into a private buffer instead of the file.
+     */
+    public static void beginCapture() {
+        Capture capture = captures.get();
+        capture.buffer.reset();
+        capture.active = true;
+    }
+
+    /**
+     * Stops capturing the writes of the calling thread.
+     *
+     * @return The bytes written by the calling thread since beginCapture.
+     */
+    public static byte[] endCapture() {
+        Capture capture = captures.get();
+        capture.active = false;
+        return capture.buffer.toByteArray();
+    }
+
+    /**
+     * Writes the bytes to the output channel.
+     *
+     * @param bytes   The encoded content.
+     * @param offset  The index of the first byte to write.
+     * @param length  The number of bytes to write.
+     * @param append  Append status, false truncates the file first.
+     * @param newLine True if wanted to append a new line after content.
+     */
+    private static synchronized void write(byte[] bytes, int offset, int length, boolean append, boolean newLine) {
+        if (!append) { //Starting from zero means the current channel is dropped and the file is truncated.
+            close();
+        }
+        OutputStream stream = open(append);
+        if (stream == null) {
+            return;
+        }
         try {
-            ps = new PrintStream(new FileOutputStream(defaultPath, append));
-            ps.print(content + (newLine ? "\n" : ""));
-        } catch (FileNotFoundException e) {
+            stream.write(bytes, offset, length);
+            if (newLine) {
+                stream.write(NEW_LINE);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Pushes everything buffered so far to the file. With asynchronous output it only wakes the writer thread.
+     */
+    public static synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (Metrics.ENABLED) {
+            FLUSH_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Flushes and closes the output channel. A later write opens it again in append mode.
+     */
+    public static synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
             e.printStackTrace();
         } finally {
-            if (ps != null) { //Flushes all the content and closes the stream if it has been successfully created.
-                ps.flush();
-                ps.close();
-            }
+            out = null;
+        }
+    }
+
+    /**
+     * Opens the output channel if it is not open yet.
+     *
+     * @param append Append status of the file when the channel has to be opened.
+     * @return The open channel, null if the file cannot be opened.
+     */
+    private static OutputStream open(boolean append) {
+        if (out != null) {
+            return out;
+        }
+        try {
+            FileOutputStream file = new FileOutputStream(defaultPath, append);
+            out = ASYNC ? new AsyncOutputStream(file, bufferSize) : new BufferedOutputStream(file, bufferSize);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (!shutdownHookRegistered) { //Makes sure buffered content reaches the file even if the program dies early.
+            Runtime.getRuntime().addShutdownHook(new Thread(FileOutput::close));
+            shutdownHookRegistered = true;
         }
+        return out;
     }
-}
\ No newline at end of file
+}
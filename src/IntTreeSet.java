@@ -0,0 +1,236 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * IntTreeSet is a sorted set of primitive ints kept as an AVL tree in parallel arrays.
+ * Adding and removing a key costs O(log n) and walking the keys in ascending order costs O(n), without boxing.
+ */
+public class IntTreeSet {
+    private static final int NIL = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private byte[] height;
+    private int root = NIL;
+    private int size;
+    private int nextUnused = 1; //Node 0 is the NIL sentinel.
+    private int freeList = NIL;
+    private boolean changed;
+
+    public IntTreeSet() {
+        keys = new int[DEFAULT_CAPACITY];
+        left = new int[DEFAULT_CAPACITY];
+        right = new int[DEFAULT_CAPACITY];
+        height = new byte[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Adds the key to the set.
+     *
+     * @param key The key to add.
+     * @return True if the key was not in the set, false otherwise.
+     */
+    public boolean add(int key) {
+        changed = false;
+        root = insert(root, key);
+        if (changed) {
+            size++;
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the key from the set.
+     *
+     * @param key The key to remove.
+     * @return True if the key was in the set, false otherwise.
+     */
+    public boolean remove(int key) {
+        changed = false;
+        root = delete(root, key);
+        if (changed) {
+            size--;
+        }
+        return changed;
+    }
+
+    public boolean contains(int key) {
+        int node = root;
+        while (node != NIL) {
+            if (key < keys[node]) {
+                node = left[node];
+            } else if (key > keys[node]) {
+                node = right[node];
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a cursor visiting the keys in ascending order. The set must not change while the cursor is used.
+     *
+     * @return The ascending cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Cursor walks the keys of the set in ascending order.
+     */
+    public class Cursor {
+        private final int[] stack = new int[height[root] + 1];
+        private int depth = 0;
+
+        private Cursor() {
+            pushLeftSpine(root);
+        }
+
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        public int next() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            int node = stack[--depth];
+            pushLeftSpine(right[node]);
+            return keys[node];
+        }
+
+        private void pushLeftSpine(int node) {
+            while (node != NIL) {
+                stack[depth++] = node;
+                node = left[node];
+            }
+        }
+    }
+
+    private int insert(int node, int key) {
+        if (node == NIL) {
+            changed = true;
+            return newNode(key);
+        }
+        //The child is assigned through a local, since inserting may grow and replace the arrays.
+        if (key < keys[node]) {
+            int child = insert(left[node], key);
+            left[node] = child;
+        } else if (key > keys[node]) {
+            int child = insert(right[node], key);
+            right[node] = child;
+        } else {
+            return node;
+        }
+        return balance(node);
+    }
+
+    private int delete(int node, int key) {
+        if (node == NIL) {
+            return NIL;
+        }
+        if (key < keys[node]) {
+            left[node] = delete(left[node], key);
+        } else if (key > keys[node]) {
+            right[node] = delete(right[node], key);
+        } else {
+            changed = true;
+            if (left[node] == NIL || right[node] == NIL) {
+                int child = left[node] != NIL ? left[node] : right[node];
+                freeNode(node);
+                return child;
+            }
+            //Replaces the key with its successor and removes the successor from the right subtree instead.
+            int successor = right[node];
+            while (left[successor] != NIL) {
+                successor = left[successor];
+            }
+            keys[node] = keys[successor];
+            right[node] = delete(right[node], keys[successor]);
+        }
+        return balance(node);
+    }
+
+    private int balance(int node) {
+        update(node);
+        int factor = height[left[node]] - height[right[node]];
+        if (factor > 1) {
+            if (height[left[left[node]]] < height[right[left[node]]]) {
+                left[node] = rotateLeft(left[node]);
+            }
+            return rotateRight(node);
+        }
+        if (factor < -1) {
+            if (height[right[right[node]]] < height[left[right[node]]]) {
+                right[node] = rotateRight(right[node]);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(int node) {
+        height[node] = (byte) (Math.max(height[left[node]], height[right[node]]) + 1);
+    }
+
+    private int newNode(int key) {
+        int node;
+        if (freeList != NIL) {
+            node = freeList;
+            freeList = left[node];
+        } else {
+            if (nextUnused == keys.length) {
+                grow();
+            }
+            node = nextUnused++;
+        }
+        keys[node] = key;
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        left[node] = freeList;
+        freeList = node;
+    }
+
+    private void grow() {
+        int capacity = keys.length << 1;
+        keys = Arrays.copyOf(keys, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        height = Arrays.copyOf(height, capacity);
+    }
+}
@@ -0,0 +1,556 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+/**
+ * Journal makes the state of a BoxOffice durable. Every applied mutation (INIT_VOYAGE, SELL_TICKET, REFUND_TICKET
+ * and CANCEL_VOYAGE) is appended to a binary write-ahead journal, and every so often the whole registry is written
+ * as a compact snapshot of the voyages, their seat bits and their revenues. On restart the latest snapshot is
+ * loaded and only the journal written after it is replayed.
+ * <p>
+ * Records are appended to a memory buffer and made durable by group commit: the first thread that needs its
+ * record on disk writes and forces everything appended so far, and the threads that queued behind it find their
+ * records already durable. With a sync interval the records are instead forced by a background thread, so a crash
+ * may lose the mutations of the last interval.
+ * <p>
+ * A snapshot needs a state no mutation is half way through, so every mutation runs between enter and exit, and the
+ * snapshot waits for them to finish. The files of generation N are snapshot-N.bin and journal-N.log, where the
+ * journal holds the mutations applied after the snapshot.
+ */
+public class Journal {
+    private static final int SNAPSHOT_MAGIC = 0x424B534E; //"BKSN"
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int FIRST_SNAPSHOT_VERSION = 1; //Snapshots without the refunds paid of the voyages.
+    private static final byte INIT = 1;
+    private static final byte SELL = 2;
+    private static final byte REFUND = 3;
+    private static final byte CANCEL = 4;
+    private static final int HEADER_SIZE = 8; //Length and checksum of a record.
+    private static final long DEFAULT_SNAPSHOT_EVERY = 1000000;
+    private static final long DEFAULT_SYNC_MILLIS = 0;
+
+    private final Path directory;
+    private final long snapshotEvery;
+    private final long syncMillis;
+    private final StampedLock gate = new StampedLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final CRC32 checksum = new CRC32();
+    private VoyageRegistry voyages;
+    private FileChannel channel;
+    private long generation;
+    private byte[] pending = new byte[1 << 16];
+    private int pendingSize;
+    private byte[] writing = new byte[1 << 16];
+    private long appended;
+    private volatile long durable;
+    private long recordsSinceSnapshot;
+    private Thread syncer;
+
+    /**
+     * Constructs a Journal configured by -Dbooking.journal.snapshotEvery and -Dbooking.journal.syncMillis.
+     *
+     * @param directory The directory holding the journal and the snapshots.
+     */
+    public Journal(Path directory) {
+        this(directory, Long.getLong("booking.journal.snapshotEvery", DEFAULT_SNAPSHOT_EVERY),
+                Long.getLong("booking.journal.syncMillis", DEFAULT_SYNC_MILLIS));
+    }
+
+    /**
+     * Constructs a Journal.
+     *
+     * @param directory     The directory holding the journal and the snapshots.
+     * @param snapshotEvery The number of journal records after which a new snapshot is taken.
+     * @param syncMillis    0 to force every mutation to disk before it is reported, otherwise the interval in
+     *                      milliseconds at which a background thread forces the journal.
+     */
+    public Journal(Path directory, long snapshotEvery, long syncMillis) {
+        if (snapshotEvery < 1 || syncMillis < 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive and sync interval non-negative: "
+                    + snapshotEvery + ", " + syncMillis);
+        }
+        this.directory = directory;
+        this.snapshotEvery = snapshotEvery;
+        this.syncMillis = syncMillis;
+    }
+
+    /**
+     * Restores the registry from the latest snapshot and the journal written after it, then opens the journal
+     * for appending. A record cut off by a crash at the end of the journal is dropped.
+     *
+     * @param voyages The empty registry to restore into.
+     */
+    public void recover(VoyageRegistry voyages) {
+        this.voyages = voyages;
+        try {
+            Files.createDirectories(directory);
+            generation = latestGeneration();
+            Path snapshot = snapshotPath(generation);
+            if (Files.exists(snapshot)) {
+                readSnapshot(snapshot);
+            }
+            Path journal = journalPath(generation);
+            long validLength = Files.exists(journal) ? replay(journal) : 0;
+            channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.truncate(validLength);
+            channel.position(validLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot recover the journal in " + directory, e);
+        }
+        if (syncMillis > 0) {
+            syncer = new Thread(this::syncPeriodically, "journal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+    }
+
+    /**
+     * Marks the start of a mutation. Snapshots wait until every started mutation has called exit.
+     *
+     * @return The stamp to pass to exit.
+     */
+    public long enter() {
+        return gate.readLock();
+    }
+
+    /**
+     * Marks the end of a mutation. Unless a sync interval is configured, it returns once the records of the
+     * mutation are on disk. It takes a snapshot if enough records have been written since the last one.
+     *
+     * @param stamp The stamp returned by enter.
+     */
+    public void exit(long stamp) {
+        gate.unlockRead(stamp);
+        if (syncMillis == 0) {
+            sync();
+        }
+        if (isSnapshotDue()) {
+            checkpoint();
+        }
+    }
+
+    private synchronized boolean isSnapshotDue() {
+        return recordsSinceSnapshot >= snapshotEvery;
+    }
+
+    public synchronized void logInit(Voyage voyage) {
+        int start = beginRecord(INIT, voyage.getVoyageID());
+        putString(voyage.getTypeName());
+        putString(voyage.getFromWhere());
+        putString(voyage.getToWhere());
+        putInt(voyage.getRow());
+        putInt(Float.floatToIntBits(voyage.getRegularSeatFee()));
+        putInt(Float.floatToIntBits(voyage.getRefundCutPercentage()));
+        putInt(Float.floatToIntBits(voyage.getPremiumFee()));
+        endRecord(start);
+    }
+
+    public synchronized void logSell(int voyageID, int[] seatNumbers, int count) {
+        logSeats(SELL, voyageID, seatNumbers, count);
+    }
+
+    public synchronized void logRefund(int voyageID, int[] seatNumbers, int count) {
+        logSeats(REFUND, voyageID, seatNumbers, count);
+    }
+
+    public synchronized void logCancel(int voyageID) {
+        endRecord(beginRecord(CANCEL, voyageID));
+    }
+
+    private void logSeats(byte type, int voyageID, int[] seatNumbers, int count) {
+        int start = beginRecord(type, voyageID);
+        putInt(count);
+        for (int i = 0; i < count; i++) {
+            putInt(seatNumbers[i]);
+        }
+        endRecord(start);
+    }
+
+    /**
+     * Writes every record appended so far to the journal file and forces it to disk. Threads that call it while
+     * another thread is forcing wait for that thread and return at once if their records were part of its write.
+     */
+    public void sync() {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        if (durable >= target) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durable >= target) {
+                return;
+            }
+            int size;
+            long written;
+            synchronized (this) {
+                byte[] swap = writing;
+                writing = pending;
+                pending = swap;
+                size = pendingSize;
+                pendingSize = 0;
+                written = appended;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(writing, 0, size);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            durable = written;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the journal in " + directory, e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the registry and starts a new journal after it. The files of older generations
+     * are deleted once the snapshot is on disk.
+     */
+    public void checkpoint() {
+        long stamp = gate.writeLock();
+        try {
+            if (recordsSinceSnapshot == 0 && Files.exists(snapshotPath(generation))) {
+                return;
+            }
+            sync();
+            long next = generation + 1;
+            writeSnapshot(next);
+            FileChannel previous = channel;
+            channel = FileChannel.open(journalPath(next), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            previous.close();
+            generation = next;
+            recordsSinceSnapshot = 0;
+            deleteOlderGenerations();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write a snapshot in " + directory, e);
+        } finally {
+            gate.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes a last snapshot, so the next start does not replay anything, and closes the journal.
+     */
+    public void close() {
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+        checkpoint();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close the journal in " + directory, e);
+        }
+    }
+
+    private void syncPeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(syncMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sync();
+        }
+    }
+
+    private int beginRecord(byte type, int voyageID) {
+        int start = pendingSize;
+        ensureCapacity(HEADER_SIZE);
+        pendingSize += HEADER_SIZE;
+        put(type);
+        putInt(voyageID);
+        return start;
+    }
+
+    private void endRecord(int start) {
+        int length = pendingSize - start - HEADER_SIZE;
+        checksum.reset();
+        checksum.update(pending, start + HEADER_SIZE, length);
+        writeInt(pending, start, length);
+        writeInt(pending, start + 4, (int) checksum.getValue());
+        appended++;
+        recordsSinceSnapshot++;
+    }
+
+    private void put(byte value) {
+        ensureCapacity(1);
+        pending[pendingSize++] = value;
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(4);
+        writeInt(pending, pendingSize, value);
+        pendingSize += 4;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, pending, pendingSize, bytes.length);
+        pendingSize += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (pendingSize + extra > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length << 1, pendingSize + extra));
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Applies the records of a journal file to the registry.
+     *
+     * @param journal The journal file.
+     * @return The length of the journal up to the last complete record.
+     */
+    private long replay(Path journal) throws IOException {
+        long validLength = 0;
+        long fileSize = Files.size(journal);
+        try (InputStream file = Files.newInputStream(journal);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                int expected;
+                try {
+                    length = in.readInt();
+                    expected = in.readInt();
+                    if (length < 5 || length > fileSize - validLength - HEADER_SIZE) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) { //The record was cut off by a crash, it has never been reported.
+                    break;
+                }
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                validLength += HEADER_SIZE + length;
+                recordsSinceSnapshot++;
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Applies one journal record. Records are only written for mutations that succeeded, so they are applied
+     * without the checks of the commands; a record of a voyage cancelled in the meantime is skipped.
+     */
+    private void apply(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        int voyageID = record.readInt();
+        if (type == INIT) {
+            String typeName = readString(record);
+            String fromWhere = readString(record);
+            String toWhere = readString(record);
+            int row = record.readInt();
+            float seatFee = Float.intBitsToFloat(record.readInt());
+            float refundCut = Float.intBitsToFloat(record.readInt());
+            float premiumFee = Float.intBitsToFloat(record.readInt());
+            voyages.add(createVoyage(typeName, voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee));
+            return;
+        }
+        if (type == CANCEL) {
+            voyages.remove(voyageID);
+            return;
+        }
+        Voyage voyage = voyages.get(voyageID);
+        if (voyage == null) {
+            return;
+        }
+        SeatMap seatMap = voyage.getSeatMap();
+        int count = record.readInt();
+        long amount = 0;
+        int[] seats = new int[count];
+        for (int i = 0; i < count; i++) {
+            int seat = record.readInt();
+            seats[i] = seat;
+            if (type == SELL) {
+                seatMap.sell(seat);
+                amount += voyage.getSeatPrice(seat);
+            } else {
+                seatMap.release(seat);
+                amount += voyage.getSeatRefund(seat);
+            }
+        }
+        if (type == SELL) {
+            voyage.addRevenue(amount);
+        } else {
+            voyage.addRefund(amount);
+        }
+        voyage.countSeats(seats, count, type == SELL ? 1 : -1);
+    }
+
+    private void writeSnapshot(long next) throws IOException {
+        Path target = snapshotPath(next);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        Voyage[] snapshot = voyages.snapshot();
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(snapshot.length);
+            for (Voyage voyage : snapshot) {
+                out.writeInt(voyage.getVoyageID());
+                out.writeUTF(voyage.getTypeName());
+                out.writeUTF(voyage.getFromWhere());
+                out.writeUTF(voyage.getToWhere());
+                out.writeInt(voyage.getRow());
+                out.writeFloat(voyage.getRegularSeatFee());
+                out.writeFloat(voyage.getRefundCutPercentage());
+                out.writeFloat(voyage.getPremiumFee());
+                out.writeLong(voyage.getRevenueMicros());
+                out.writeLong(voyage.getRefundsPaid());
+                SeatMap seatMap = voyage.getSeatMap();
+                out.writeInt(seatMap.wordCount());
+                for (int i = 0; i < seatMap.wordCount(); i++) {
+                    out.writeLong(seatMap.word(i));
+                }
+            }
+            out.writeInt(SNAPSHOT_MAGIC); //The trailer tells a complete snapshot from one cut off by a crash.
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readSnapshot(Path snapshot) throws IOException {
+        try (InputStream file = Files.newInputStream(snapshot);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != SNAPSHOT_MAGIC || version != SNAPSHOT_VERSION && version != FIRST_SNAPSHOT_VERSION) {
+                throw new IOException("Not a snapshot: " + snapshot);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int voyageID = in.readInt();
+                String typeName = in.readUTF();
+                String fromWhere = in.readUTF();
+                String toWhere = in.readUTF();
+                int row = in.readInt();
+                float seatFee = in.readFloat();
+                float refundCut = in.readFloat();
+                float premiumFee = in.readFloat();
+                Voyage voyage = createVoyage(typeName, voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee);
+                voyage.addRevenue(in.readLong());
+                if (version != FIRST_SNAPSHOT_VERSION) {
+                    voyage.setRefundsPaid(in.readLong());
+                }
+                SeatMap seatMap = voyage.getSeatMap();
+                int words = in.readInt();
+                for (int w = 0; w < words; w++) {
+                    long word = in.readLong();
+                    for (; word != 0; word &= word - 1) {
+                        seatMap.sell((w << SeatMap.WORD_SHIFT) + Long.numberOfTrailingZeros(word) + 1);
+                    }
+                }
+                voyage.recountSales();
+                voyages.add(voyage);
+            }
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Incomplete snapshot: " + snapshot);
+            }
+        }
+    }
+
+    private static Voyage createVoyage(String typeName, int voyageID, String fromWhere, String toWhere,
+                                       float seatFee, int row, float refundCut, float premiumFee) throws IOException {
+        switch (typeName) {
+            case "Standard":
+                return new Standard(voyageID, fromWhere, toWhere, seatFee, row, refundCut);
+            case "Premium":
+                return new Premium(voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee);
+            case "Minibus":
+                return new Minibus(voyageID, fromWhere, toWhere, seatFee, row);
+            default:
+                throw new IOException("Unknown voyage type in the journal: " + typeName);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the newest generation that has a snapshot, 0 if there is none.
+     */
+    private long latestGeneration() throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+            for (Path file : files) {
+                latest = Math.max(latest, generationOf(file));
+            }
+        }
+        return latest;
+    }
+
+    private void deleteOlderGenerations() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{snapshot,journal}-*")) {
+            for (Path file : files) {
+                if (generationOf(file) < generation) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        int start = name.indexOf('-') + 1;
+        int end = name.indexOf('.', start);
+        try {
+            return Long.parseLong(name.substring(start, end < 0 ? name.length() : end));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE; //Not a file of the journal, it is never deleted.
+        }
+    }
+
+    private Path snapshotPath(long generation) {
+        return directory.resolve("snapshot-" + generation + ".bin");
+    }
+
+    private Path journalPath(long generation) {
+        return directory.resolve("journal-" + generation + ".log");
+    }
+}
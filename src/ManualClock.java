@@ -0,0 +1,65 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ManualClock is a clock that only moves when it is told to, so timed behaviour such as the expiry of seat holds
+ * can be replayed deterministically. It starts at the epoch; -Dbooking.clock=manual makes the BoxOffice use one,
+ * driven by the ADVANCE_CLOCK command.
+ */
+public final class ManualClock extends Clock {
+    private final AtomicLong millis = new AtomicLong();
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param millis The number of milliseconds to move, not negative.
+     */
+    public void advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("A clock cannot go back: " + millis);
+        }
+        this.millis.addAndGet(millis);
+    }
+
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    /**
+     * Returns a view of this clock in another zone, which moves together with this clock.
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        ManualClock clock = this;
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return zone;
+            }
+
+            @Override
+            public Clock withZone(ZoneId other) {
+                return clock.withZone(other);
+            }
+
+            @Override
+            public Instant instant() {
+                return clock.instant();
+            }
+        };
+    }
+}
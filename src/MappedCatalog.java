@@ -0,0 +1,473 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MappedCatalog keeps a whole voyage catalog in one binary file of fixed layout that is memory-mapped instead of
+ * read, so opening even a catalog of millions of voyages costs only a few page faults, and the voyages are
+ * materialized one by one as they are first looked up.
+ * <p>
+ * The file starts with a header, followed by one fixed-size record per voyage in ascending order of the IDs, so a
+ * voyage is found by binary search. A record holds the ID, the type, the cancelled flag, the rows, the interned
+ * departure and destination cities, the seat fee, the refund cut, the premium fee, the revenue, the offset of the
+ * seat bits and the refunds paid of the voyage. The seat bits of all voyages follow the records, and the table of
+ * the interned city names comes last. Seat sales, revenues and cancellations are written straight into the mapping;
+ * voyages initialized after the catalog was opened are kept on the heap and written into a new catalog file at
+ * close. Catalogs of the first version, whose records end before the refunds paid, are still read; they are
+ * written anew in the current version at close.
+ * <p>
+ * A mapped region is limited to 2 GB, which allows about 38 million voyages.
+ */
+public class MappedCatalog implements VoyageStore {
+    private static final int MAGIC = 0x424B4354; //"BKCT"
+    private static final int VERSION = 2;
+    private static final int FIRST_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 8;
+    private static final int CANCELLED_OFFSET = 12;
+    private static final int SEATS_OFFSET = 16;
+    private static final int CITIES_OFFSET = 24;
+    private static final int RECORD_SIZE = 56;
+    private static final int FIRST_RECORD_SIZE = 48; //The records of the first version, without the refunds paid.
+    private static final int TYPE = 4;
+    private static final int FLAGS = 5;
+    private static final int ROW = 8;
+    private static final int FROM = 12;
+    private static final int TO = 16;
+    private static final int SEAT_FEE = 20;
+    private static final int REFUND_CUT = 24;
+    private static final int PREMIUM_FEE = 28;
+    private static final int REVENUE = 32;
+    private static final int SEAT_WORDS = 40;
+    private static final int REFUNDS_PAID = 48;
+    static final byte STANDARD = 1;
+    static final byte PREMIUM = 2;
+    static final byte MINIBUS = 3;
+    private static final byte CANCELLED = 1;
+
+    private final Path file;
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer seats;
+    private final String[] cities;
+    private final int count;
+    private final int recordSize;
+    private int cancelled;
+    private long[] routes; //The route and index of every record sorted, built on the first route query.
+    private Map<String, Integer> cityIndex;
+
+    private MappedCatalog(Path file, MappedByteBuffer records, MappedByteBuffer seats, String[] cities, int count,
+                          int recordSize, int cancelled) {
+        this.file = file;
+        this.records = records;
+        this.seats = seats;
+        this.cities = cities;
+        this.count = count;
+        this.recordSize = recordSize;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Maps the catalog file. A missing file gives an empty catalog, which is written at close.
+     *
+     * @param file The catalog file.
+     * @return The mapped catalog.
+     */
+    public static MappedCatalog open(Path file) {
+        if (!Files.exists(file)) {
+            return new MappedCatalog(file, null, null, new String[0], 0, RECORD_SIZE, 0);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                //Reads until the header is complete or the file ends.
+            }
+            long size = channel.size();
+            int version = header.getInt(4);
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || version != VERSION && version != FIRST_VERSION) {
+                throw new IOException("Not a voyage catalog: " + file);
+            }
+            int recordSize = version == FIRST_VERSION ? FIRST_RECORD_SIZE : RECORD_SIZE;
+            int count = header.getInt(COUNT_OFFSET);
+            long seatsOffset = header.getLong(SEATS_OFFSET);
+            long citiesOffset = header.getLong(CITIES_OFFSET);
+            if (count < 0 || seatsOffset != HEADER_SIZE + (long) count * recordSize || citiesOffset < seatsOffset
+                    || citiesOffset > size || seatsOffset > Integer.MAX_VALUE
+                    || citiesOffset - seatsOffset > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt voyage catalog: " + file);
+            }
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_WRITE, 0, seatsOffset);
+            MappedByteBuffer seats = channel.map(FileChannel.MapMode.READ_WRITE, seatsOffset, citiesOffset - seatsOffset);
+            ByteBuffer names = ByteBuffer.allocate((int) (size - citiesOffset));
+            while (names.hasRemaining() && channel.read(names, citiesOffset + names.position()) >= 0) {
+                //Reads until the city table is complete or the file ends.
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(names.array()));
+            String[] cities = new String[in.readInt()];
+            for (int i = 0; i < cities.length; i++) {
+                cities[i] = in.readUTF().intern();
+            }
+            return new MappedCatalog(file, records, seats, cities, count, recordSize, header.getInt(CANCELLED_OFFSET));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the voyage catalog " + file, e);
+        }
+    }
+
+    /**
+     * Returns the number of records, cancelled voyages included.
+     *
+     * @return The number of records.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Returns the number of voyages that are not cancelled.
+     *
+     * @return The number of live voyages.
+     */
+    public int liveCount() {
+        return count - cancelled;
+    }
+
+    /**
+     * Returns the voyage ID of a record.
+     *
+     * @param record The index of the record.
+     * @return The voyage ID.
+     */
+    public int idAt(int record) {
+        return records.getInt(HEADER_SIZE + record * recordSize);
+    }
+
+    /**
+     * Finds the record of a voyage by binary search over the ordered records.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return The index of the record, -1 if there is no such voyage or it is cancelled.
+     */
+    public int find(int voyageID) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = idAt(middle);
+            if (id < voyageID) {
+                low = middle + 1;
+            } else if (id > voyageID) {
+                high = middle - 1;
+            } else {
+                return isCancelled(middle) ? -1 : middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first record at or after the given one whose voyage is not cancelled.
+     *
+     * @param record The index of the record to start from.
+     * @return The index of the record, -1 if there is none.
+     */
+    public int nextLive(int record) {
+        while (record < count && isCancelled(record)) {
+            record++;
+        }
+        return record < count ? record : -1;
+    }
+
+    /**
+     * Tells whether the voyage of a record is cancelled.
+     *
+     * @param record The index of the record.
+     * @return True if the voyage is cancelled.
+     */
+    public boolean isCancelled(int record) {
+        return records.get(HEADER_SIZE + record * recordSize + FLAGS) == CANCELLED;
+    }
+
+    /**
+     * Returns the records of the voyages from one city to another, cancelled ones included, in ascending order of
+     * the IDs. The first call sorts the routes of all records once; every call after it is a binary search.
+     *
+     * @param fromWhere The departure city.
+     * @param toWhere   The destination city.
+     * @return The indices of the records, empty if no voyage takes the route.
+     */
+    public synchronized int[] recordsOn(String fromWhere, String toWhere) {
+        if (routes == null) {
+            cityIndex = new HashMap<>(cities.length * 2);
+            for (int i = 0; i < cities.length; i++) {
+                cityIndex.put(cities[i], i);
+            }
+            routes = sortRoutes();
+        }
+        Integer from = cityIndex.get(fromWhere);
+        Integer to = cityIndex.get(toWhere);
+        if (from == null || to == null) {
+            return new int[0];
+        }
+        long key = (long) routeOf(from, to) << 32;
+        int low = 0;
+        int high = routes.length;
+        while (low < high) { //Finds the first entry of the route.
+            int middle = (low + high) >>> 1;
+            if (routes[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int end = low;
+        while (end < routes.length && routes[end] >>> 32 == key >>> 32) {
+            end++;
+        }
+        int[] found = new int[end - low];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = (int) routes[low + i];
+        }
+        return found;
+    }
+
+    /**
+     * Returns every record as its route in the high half and its index in the low half, sorted, so the records
+     * of a route are adjacent and ordered by ID.
+     */
+    private long[] sortRoutes() {
+        long[] sorted = new long[count];
+        for (int record = 0; record < count; record++) {
+            int offset = HEADER_SIZE + record * recordSize;
+            int route = routeOf(records.getInt(offset + FROM), records.getInt(offset + TO));
+            sorted[record] = (long) route << 32 | record;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Numbers a pair of cities of the city table.
+     */
+    private int routeOf(int from, int to) {
+        return from * cities.length + to;
+    }
+
+    /**
+     * Materializes the voyage of a record. Its seat map reads and writes the seat bits of the mapping, and its
+     * revenue changes are written back to the record.
+     *
+     * @param record The index of the record.
+     * @return The voyage.
+     */
+    public Voyage load(int record) {
+        int offset = HEADER_SIZE + record * recordSize;
+        int voyageID = records.getInt(offset);
+        int row = records.getInt(offset + ROW);
+        String fromWhere = cities[records.getInt(offset + FROM)];
+        String toWhere = cities[records.getInt(offset + TO)];
+        float seatFee = records.getFloat(offset + SEAT_FEE);
+        float refundCut = records.getFloat(offset + REFUND_CUT);
+        int base = (int) records.getLong(offset + SEAT_WORDS);
+        Voyage voyage;
+        switch (records.get(offset + TYPE)) {
+            case STANDARD:
+                voyage = new Standard(voyageID, fromWhere, toWhere, seatFee, row, refundCut,
+                        new MappedSeatMap(seats, base, row * 4));
+                break;
+            case PREMIUM:
+                voyage = new Premium(voyageID, fromWhere, toWhere, seatFee, row, refundCut,
+                        records.getFloat(offset + PREMIUM_FEE), new MappedSeatMap(seats, base, row * 3));
+                break;
+            case MINIBUS:
+                voyage = new Minibus(voyageID, fromWhere, toWhere, seatFee, row,
+                        new MappedSeatMap(seats, base, row * 2));
+                break;
+            default:
+                throw new IllegalStateException("Corrupt voyage catalog record " + record + " in " + file);
+        }
+        voyage.addRevenue(records.getLong(offset + REVENUE));
+        if (recordSize > REFUNDS_PAID) {
+            voyage.setRefundsPaid(records.getLong(offset + REFUNDS_PAID));
+        }
+        voyage.recountSales();
+        voyage.bindStore(this, record);
+        return voyage;
+    }
+
+    /**
+     * Marks the voyage of a record as cancelled. The caller must hold the write lock of the registry.
+     *
+     * @param record The index of the record.
+     */
+    public void cancel(int record) {
+        records.put(HEADER_SIZE + record * recordSize + FLAGS, CANCELLED);
+        records.putInt(CANCELLED_OFFSET, ++cancelled);
+    }
+
+    /**
+     * The record format has no room for the sales counters, they are counted from the seat bits at every load.
+     */
+    @Override
+    public void storeSales(int record, int seatsSold, int premiumSeatsSold, long soldValue) {
+    }
+
+    /**
+     * Writes the revenue of a voyage to its record.
+     *
+     * @param record  The index of the record.
+     * @param revenue The revenue in millionths of a lira.
+     */
+    @Override
+    public void storeRevenue(int record, long revenue) {
+        records.putLong(HEADER_SIZE + record * recordSize + REVENUE, revenue);
+    }
+
+    /**
+     * Writes the refunds paid of a voyage to its record. The records of the first version have no room for them,
+     * the voyage keeps them until the catalog is written anew at close.
+     *
+     * @param record      The index of the record.
+     * @param refundsPaid The refunds paid in millionths of a lira.
+     */
+    @Override
+    public void storeRefunds(int record, long refundsPaid) {
+        if (recordSize > REFUNDS_PAID) {
+            records.putLong(HEADER_SIZE + record * recordSize + REFUNDS_PAID, refundsPaid);
+        }
+    }
+
+    /**
+     * Tells whether a record holds the given voyage. Records are never reused, a cancelled one keeps its voyage.
+     */
+    @Override
+    public boolean holds(int record, int voyageID) {
+        return idAt(record) == voyageID;
+    }
+
+    /**
+     * Makes the catalog durable. If voyages were initialized on the heap since the catalog was opened, a new
+     * catalog holding every voyage of the registry replaces the file, as it does for a catalog of the first version;
+     * otherwise the mapping is forced to disk.
+     *
+     * @param voyages The registry backed by this catalog.
+     */
+    public void close(VoyageRegistry voyages) {
+        if (records == null || voyages.hasHeapVoyages() || recordSize != RECORD_SIZE) {
+            write(file, voyages.snapshot());
+        } else {
+            records.force();
+            seats.force();
+        }
+    }
+
+    /**
+     * Writes the voyages into a new catalog file, which atomically replaces the given one.
+     *
+     * @param file     The catalog file.
+     * @param snapshot The voyages in ascending order of their IDs.
+     */
+    public static void write(Path file, Voyage[] snapshot) {
+        Map<String, Integer> cityIndex = new HashMap<>();
+        String[] cities = new String[16];
+        long seatWords = 0;
+        for (Voyage voyage : snapshot) {
+            cities = intern(cityIndex, cities, voyage.getFromWhere());
+            cities = intern(cityIndex, cities, voyage.getToWhere());
+            seatWords += voyage.getSeatMap().wordCount();
+        }
+        long seatsOffset = HEADER_SIZE + (long) snapshot.length * RECORD_SIZE;
+        long citiesOffset = seatsOffset + seatWords * 8;
+        if (seatsOffset > Integer.MAX_VALUE || seatWords * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many voyages for one catalog: " + snapshot.length);
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.length);
+            out.writeInt(0);
+            out.writeLong(seatsOffset);
+            out.writeLong(citiesOffset);
+            long base = 0;
+            for (Voyage voyage : snapshot) {
+                out.writeInt(voyage.getVoyageID());
+                out.writeByte(typeOf(voyage));
+                out.writeByte(0);
+                out.writeShort(0);
+                out.writeInt(voyage.getRow());
+                out.writeInt(cityIndex.get(voyage.getFromWhere()));
+                out.writeInt(cityIndex.get(voyage.getToWhere()));
+                out.writeFloat(voyage.getRegularSeatFee());
+                out.writeFloat(voyage.getRefundCutPercentage());
+                out.writeFloat(voyage.getPremiumFee());
+                out.writeLong(voyage.getRevenueMicros());
+                out.writeLong(base);
+                out.writeLong(voyage.getRefundsPaid());
+                base += (long) voyage.getSeatMap().wordCount() * 8;
+            }
+            for (Voyage voyage : snapshot) {
+                SeatMap seatMap = voyage.getSeatMap();
+                for (int i = 0; i < seatMap.wordCount(); i++) {
+                    out.writeLong(seatMap.word(i));
+                }
+            }
+            out.writeInt(cityIndex.size());
+            for (int i = 0; i < cityIndex.size(); i++) {
+                out.writeUTF(cities[i]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the voyage catalog " + file, e);
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace the voyage catalog " + file, e);
+        }
+    }
+
+    private static String[] intern(Map<String, Integer> cityIndex, String[] cities, String city) {
+        if (cityIndex.containsKey(city)) {
+            return cities;
+        }
+        int index = cityIndex.size();
+        if (index == cities.length) {
+            cities = Arrays.copyOf(cities, index << 1);
+        }
+        cities[index] = city;
+        cityIndex.put(city, index);
+        return cities;
+    }
+
+    /**
+     * Returns the type code records store for a voyage, shared with SlabStore.
+     */
+    static byte typeOf(Voyage voyage) {
+        String typeName = voyage.getTypeName();
+        if ("Standard".equals(typeName)) {
+            return STANDARD;
+        }
+        if ("Premium".equals(typeName)) {
+            return PREMIUM;
+        }
+        if ("Minibus".equals(typeName)) {
+            return MINIBUS;
+        }
+        throw new IllegalArgumentException("Voyage " + voyage.getVoyageID() + " has no type to catalog");
+    }
+}
@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+
+/**
+ * MappedSeatMap reads and writes the seat bits of a voyage directly in the seat region of a MappedCatalog,
+ * so the bits never have to be copied onto the heap and sales land in the file without a separate write.
+ * Callers that share it between threads must hold the lock of the voyage while they change it.
+ */
+public class MappedSeatMap extends SeatMap {
+    private final ByteBuffer seats;
+    private final int base;
+    private final int wordCount;
+
+    /**
+     * Constructs a MappedSeatMap over words that are already in the mapping.
+     *
+     * @param seats         The mapped seat region of the catalog.
+     * @param base          The byte offset of the first word of the voyage in the region.
+     * @param numberOfSeats The number of seats of the voyage.
+     */
+    public MappedSeatMap(ByteBuffer seats, int base, int numberOfSeats) {
+        super(numberOfSeats);
+        this.seats = seats;
+        this.base = base;
+        this.wordCount = wordsFor(numberOfSeats);
+    }
+
+    @Override
+    protected long word(int index) {
+        return seats.getLong(base + (index << 3));
+    }
+
+    @Override
+    protected int wordCount() {
+        return wordCount;
+    }
+
+    @Override
+    public void sell(int seatNumber) {
+        int index = seatNumber - 1;
+        int offset = base + ((index >>> WORD_SHIFT) << 3);
+        seats.putLong(offset, seats.getLong(offset) | (1L << index));
+    }
+
+    @Override
+    public void release(int seatNumber) {
+        int index = seatNumber - 1;
+        int offset = base + ((index >>> WORD_SHIFT) << 3);
+        seats.putLong(offset, seats.getLong(offset) & ~(1L << index));
+    }
+
+    @Override
+    public boolean claim(int[] seatNumbers, int count) {
+        if (countSold(seatNumbers, count) != 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            sell(seatNumbers[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean releaseAll(int[] seatNumbers, int count) {
+        if (countSold(seatNumbers, count) != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            release(seatNumbers[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isLockFree() {
+        return false;
+    }
+}
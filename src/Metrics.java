@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics collects the operational metrics of a run: latency histograms, counters and gauges, each one named
+ * like "command.SELL_TICKET" or "error.NO_SUCH_VOYAGE".
+ * Metrics are on when -Dbooking.metrics=true or -Dbooking.metrics.file is given. ENABLED is a constant, so when
+ * they are off the JIT drops every guarded measurement and the hot paths pay nothing. When they are on, a
+ * measurement is an atomic increment or two, and the snapshots are rendered off the hot paths: periodically into
+ * the metrics file (JSON if its name ends with .json, text otherwise), on demand through JMX, and once at exit.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("booking.metrics")
+            || System.getProperty("booking.metrics.file") != null;
+    private static final long DEFAULT_INTERVAL_MILLIS = 10000;
+    private static final String OBJECT_NAME = "booking:type=Metrics";
+
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Long> lastCounts = new TreeMap<>();
+    private static final long startNanos = System.nanoTime();
+    private static long lastWriteNanos = startNanos;
+    private static Path file;
+    private static Thread writer;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the histogram of the given name, creating it on first use.
+     *
+     * @param name The name of the histogram.
+     * @return The histogram.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the counter of the given name, creating it on first use.
+     *
+     * @param name The name of the counter.
+     * @return The counter.
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge, which is read whenever a snapshot is taken.
+     *
+     * @param name  The name of the gauge.
+     * @param gauge The function reading the current value.
+     */
+    public static void gauge(String name, DoubleSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Starts exporting the metrics: registers the gauges of the run and the MXBean, and starts writing the
+     * metrics file every -Dbooking.metrics.intervalMillis milliseconds. Does nothing when metrics are off.
+     *
+     * @param voyages   The registry of the run.
+     * @param boxOffice The BoxOffice of the run.
+     */
+    public static void start(VoyageRegistry voyages, BoxOffice boxOffice) {
+        if (!ENABLED) {
+            return;
+        }
+        gauge("voyages.active", voyages::size);
+        gauge("seats.occupancy", () -> occupancy(voyages));
+        gauge("render.cache.hits", boxOffice::getRenderCacheHits);
+        gauge("render.cache.misses", boxOffice::getRenderCacheMisses);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        String path = System.getProperty("booking.metrics.file");
+        if (path == null) {
+            return;
+        }
+        file = Paths.get(path);
+        long interval = Long.getLong("booking.metrics.intervalMillis", DEFAULT_INTERVAL_MILLIS);
+        if (interval > 0) {
+            writer = new Thread(() -> writePeriodically(interval), "metrics-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Stops the periodic writes and writes the last snapshot. Does nothing when metrics are off.
+     */
+    public static void close() {
+        if (!ENABLED) {
+            return;
+        }
+        if (writer != null) {
+            writer.interrupt();
+        }
+        if (file != null) {
+            write();
+        }
+    }
+
+    private static void writePeriodically(long interval) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            write();
+        }
+    }
+
+    /**
+     * Writes a snapshot into the metrics file, replacing the previous one atomically.
+     */
+    private static synchronized void write() {
+        long now = System.nanoTime();
+        double seconds = (now - lastWriteNanos) / 1e9;
+        boolean json = file.getFileName().toString().endsWith(".json");
+        String content = json ? toJson(lastCounts, seconds) : toText(lastCounts, seconds);
+        lastWriteNanos = now;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temporary, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the metrics to " + file, e);
+        }
+    }
+
+    /**
+     * Returns the share of sold seats over all active voyages. It walks the registry, reading the running counters
+     * of each voyage instead of its seats, so it is only read by snapshots.
+     */
+    private static double occupancy(VoyageRegistry voyages) {
+        long sold = 0;
+        long seats = 0;
+        for (Voyage voyage : voyages) {
+            sold += voyage.getSeatsSold();
+            seats += voyage.getSeatMap().size();
+        }
+        return seats == 0 ? 0 : (double) sold / seats;
+    }
+
+    /**
+     * Renders the metrics as text, one metric per line. Counter rates are averaged over the whole run.
+     *
+     * @return The text snapshot.
+     */
+    public static String toText() {
+        return toText(new TreeMap<>(), (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /**
+     * Renders the metrics as text, with counter rates over the given interval.
+     *
+     * @param previous The counter values at the start of the interval, updated to the current values.
+     * @param seconds  The length of the interval.
+     */
+    private static String toText(Map<String, Long> previous, double seconds) {
+        StringBuilder builder = new StringBuilder(1024);
+        builder.append("# booking metrics at ").append(Instant.now())
+                .append(", uptime ").append((System.nanoTime() - startNanos) / 1000000).append(" ms\n");
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            long count = counter.getValue().sum();
+            builder.append("counter ").append(counter.getKey()).append(' ').append(count)
+                    .append(" rate=").append(rate(previous, counter.getKey(), count, seconds)).append("/s\n");
+        }
+        for (Map.Entry<String, DoubleSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            builder.append("gauge ").append(gauge.getKey()).append(' ').append(gauge.getValue().getAsDouble())
+                    .append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append("histogram ").append(entry.getKey()).append(" count=").append(histogram.count())
+                    .append(" p50=").append(histogram.percentile(0.5)).append("ns p99=")
+                    .append(histogram.percentile(0.99)).append("ns p999=").append(histogram.percentile(0.999))
+                    .append("ns max=").append(histogram.max()).append("ns\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Renders the metrics as a JSON object with the counters, gauges and histograms by name. Counter rates are
+     * averaged over the whole run.
+     *
+     * @return The JSON snapshot.
+     */
+    public static String toJson() {
+        return toJson(new TreeMap<>(), (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /**
+     * Renders the metrics as JSON, with counter rates over the given interval.
+     *
+     * @param previous The counter values at the start of the interval, updated to the current values.
+     * @param seconds  The length of the interval.
+     */
+    private static String toJson(Map<String, Long> previous, double seconds) {
+        StringBuilder builder = new StringBuilder(1024);
+        builder.append("{\"timestamp\":\"").append(Instant.now()).append("\",\"uptimeMillis\":")
+                .append((System.nanoTime() - startNanos) / 1000000).append(",\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            long count = counter.getValue().sum();
+            builder.append(separator).append('"').append(counter.getKey()).append("\":{\"count\":").append(count)
+                    .append(",\"ratePerSecond\":").append(rate(previous, counter.getKey(), count, seconds))
+                    .append('}');
+            separator = ",";
+        }
+        builder.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, DoubleSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            builder.append(separator).append('"').append(gauge.getKey()).append("\":")
+                    .append(gauge.getValue().getAsDouble());
+            separator = ",";
+        }
+        builder.append("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(separator).append('"').append(entry.getKey()).append("\":{\"count\":")
+                    .append(histogram.count()).append(",\"p50Nanos\":").append(histogram.percentile(0.5))
+                    .append(",\"p99Nanos\":").append(histogram.percentile(0.99)).append(",\"p999Nanos\":")
+                    .append(histogram.percentile(0.999)).append(",\"maxNanos\":").append(histogram.max())
+                    .append('}');
+            separator = ",";
+        }
+        return builder.append("}}\n").toString();
+    }
+
+    /**
+     * Returns how fast a counter has grown over an interval.
+     */
+    private static long rate(Map<String, Long> previous, String name, long count, double seconds) {
+        Long last = previous.put(name, count);
+        return seconds <= 0 ? 0 : Math.round((count - (last == null ? 0 : last)) / seconds);
+    }
+
+    private static Map<String, Long> percentiles(double quantile) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().percentile(quantile));
+        }
+        return values;
+    }
+
+    /**
+     * Bean is the MXBean registered for the run.
+     */
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                values.put(counter.getKey(), counter.getValue().sum());
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Double> getGauges() {
+            Map<String, Double> values = new TreeMap<>();
+            for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+                values.put(gauge.getKey(), gauge.getValue().getAsDouble());
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getP50Nanos() {
+            return percentiles(0.5);
+        }
+
+        @Override
+        public Map<String, Long> getP99Nanos() {
+            return percentiles(0.99);
+        }
+
+        @Override
+        public Map<String, Long> getP999Nanos() {
+            return percentiles(0.999);
+        }
+
+        @Override
+        public String getJson() {
+            return toJson();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.Map;
+
+/**
+ * MetricsMXBean exposes the metrics of a run through JMX as booking:type=Metrics.
+ */
+public interface MetricsMXBean {
+    /**
+     * Returns the current value of every counter.
+     *
+     * @return The counters by name.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns the current value of every gauge.
+     *
+     * @return The gauges by name.
+     */
+    Map<String, Double> getGauges();
+
+    /**
+     * Returns the 50th percentile of every histogram.
+     *
+     * @return The median durations in nanoseconds by histogram name.
+     */
+    Map<String, Long> getP50Nanos();
+
+    /**
+     * Returns the 99th percentile of every histogram.
+     *
+     * @return The durations in nanoseconds by histogram name.
+     */
+    Map<String, Long> getP99Nanos();
+
+    /**
+     * Returns the 99.9th percentile of every histogram.
+     *
+     * @return The durations in nanoseconds by histogram name.
+     */
+    Map<String, Long> getP999Nanos();
+
+    /**
+     * Returns the whole snapshot as it is written to the metrics file in JSON.
+     *
+     * @return The JSON snapshot.
+     */
+    String getJson();
+}
@@ -1,12 +1,8 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * Represents a Minibus voyage.
  */
 public class Minibus extends Voyage {
-    private ArrayList<String> numberOfRows;
+    private SeatMap seatMap;
 
     /**
      * Constructs a Minibus voyage with the given parameters.
@@ -18,12 +14,36 @@ public class Minibus extends Voyage {
      * @param row       The number of rows in the minibus.
      */
     public Minibus(int voyageID, String fromWhere, String toWhere, float seatFee, int row) {
+        this(voyageID, fromWhere, toWhere, seatFee, row, SeatMap.create(row * 2));
+    }
+
+    /**
+     * Constructs a Minibus voyage whose seats are kept in the given seat map.
+     *
+     * @param voyageID  The ID of the voyage.
+     * @param fromWhere The departure location of the voyage.
+     * @param toWhere   The destination of the voyage.
+     * @param seatFee   The fee for each seat on the voyage.
+     * @param row       The number of rows in the minibus.
+     * @param seatMap   The seat map holding row * 2 seats.
+     */
+    public Minibus(int voyageID, String fromWhere, String toWhere, float seatFee, int row, SeatMap seatMap) {
         super(voyageID, fromWhere, toWhere, seatFee, row);
-        this.numberOfRows = new ArrayList<>(Collections.nCopies(row * 2, "*"));
+        this.seatMap = seatMap;
+    }
+
+    @Override
+    public SeatMap getSeatMap() {
+        return seatMap;
+    }
+
+    @Override
+    public int getSeatsPerRow() {
+        return 2;
     }
 
     @Override
-    public List<String> getNumberOfSeats() {
-        return numberOfRows;
+    public String getTypeName() {
+        return "Minibus";
     }
 }
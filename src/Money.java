@@ -0,0 +1,83 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money keeps amounts of Turkish lira as longs counting millionths of a lira, that is ten-thousandths of a kurus.
+ * Prices with two decimals, their premium and their refund cut percentages are all exact in this unit, so
+ * revenues add up without the drift of float sums. Amounts are rounded to whole kurus only when they are printed.
+ * <p>
+ * The revenues, the report lines and the summary are printed from the exact amount, rounded half up. This is a
+ * deliberate change from the float sums printed before: where a sum drifted, or an exact half kurus of a premium
+ * or refund price came out of the float just below or above it, the printed revenue differs by a kurus or more.
+ * The prices and refunds of single commands still print the float sums of Voyage.getPrintedPrice and
+ * getPrintedRefund, so those messages are unchanged.
+ */
+public final class Money {
+    private static final int SCALE = 6;
+    private static final long PER_KURUS = 10000;
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount in lira, as it is written in the command, to millionths of a lira.
+     *
+     * @param lira The amount in lira.
+     * @return The amount in millionths of a lira.
+     */
+    public static long fromLira(float lira) {
+        return new BigDecimal(Float.toString(lira)).setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /**
+     * Takes a percentage of an amount.
+     *
+     * @param amount  The amount in millionths of a lira.
+     * @param percent The percentage, as it is written in the command.
+     * @return The percentage of the amount in millionths of a lira.
+     */
+    public static long percentOf(long amount, float percent) {
+        return BigDecimal.valueOf(amount).multiply(new BigDecimal(Float.toString(percent))).movePointLeft(2)
+                .setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    /**
+     * Formats an amount as lira with two decimals, rounded half up as "%.2f" rounds an exact decimal.
+     *
+     * @param amount The amount in millionths of a lira.
+     * @return The formatted amount.
+     */
+    public static String format(long amount) {
+        return append(new StringBuilder(24), amount).toString();
+    }
+
+    /**
+     * Appends an amount as lira with two decimals, rounded half up as "%.2f" rounds an exact decimal.
+     *
+     * @param builder The builder to append to.
+     * @param amount  The amount in millionths of a lira.
+     * @return The builder.
+     */
+    public static StringBuilder append(StringBuilder builder, long amount) {
+        if (amount < 0) {
+            builder.append('-');
+        }
+        long kurus = toKurus(amount);
+        int cents = (int) (kurus % 100);
+        builder.append(kurus / 100).append('.');
+        if (cents < 10) {
+            builder.append('0');
+        }
+        return builder.append(cents);
+    }
+
+    /**
+     * Rounds the magnitude of an amount half up to whole kurus, as it is printed.
+     *
+     * @param amount The amount in millionths of a lira.
+     * @return The rounded magnitude in kurus.
+     */
+    public static long toKurus(long amount) {
+        return (Math.abs(amount) + PER_KURUS / 2) / PER_KURUS;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * PackedSeatMap stores the seat bits in a plain long array. Callers that share it between threads must hold
+ * the lock of the voyage while they change it.
+ */
+public class PackedSeatMap extends SeatMap {
+    private final long[] words;
+
+    /**
+     * Constructs a PackedSeatMap with every seat free.
+     *
+     * @param numberOfSeats The number of seats of the voyage.
+     */
+    public PackedSeatMap(int numberOfSeats) {
+        super(numberOfSeats);
+        this.words = new long[wordsFor(numberOfSeats)];
+    }
+
+    @Override
+    protected long word(int index) {
+        return words[index];
+    }
+
+    @Override
+    protected int wordCount() {
+        return words.length;
+    }
+
+    @Override
+    public void sell(int seatNumber) {
+        int index = seatNumber - 1;
+        words[index >>> WORD_SHIFT] |= 1L << index;
+    }
+
+    @Override
+    public void release(int seatNumber) {
+        int index = seatNumber - 1;
+        words[index >>> WORD_SHIFT] &= ~(1L << index);
+    }
+
+    @Override
+    public boolean claim(int[] seatNumbers, int count) {
+        if (countSold(seatNumbers, count) != 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            sell(seatNumbers[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean releaseAll(int[] seatNumbers, int count) {
+        if (countSold(seatNumbers, count) != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            release(seatNumbers[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isLockFree() {
+        return false;
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelReplay executes a command log on several worker threads and produces the same output as the serial
+ * Voyage.inputReader.
+ * Commands are read in batches. Every command of a batch is assigned to a shard by the voyage ID it touches, so all
+ * commands of one voyage run on the same worker in their original order. Z_REPORT is a barrier: the batch before it
+ * is finished, its output is written in the original order of the commands, and only then the report runs.
+ * QUERY_ROUTE reads voyages of every shard, so it is a barrier as well.
+ */
+public class ParallelReplay {
+    private static final int DEFAULT_BATCH_SIZE = 1 << 16;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * Constructs a ParallelReplay with the batch size given by -Dbooking.replay.batchSize.
+     *
+     * @param threads The number of worker threads.
+     */
+    public ParallelReplay(int threads) {
+        this(threads, Integer.getInteger("booking.replay.batchSize", DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Constructs a ParallelReplay.
+     *
+     * @param threads   The number of worker threads.
+     * @param batchSize The maximum number of commands held in memory between two barriers.
+     */
+    public ParallelReplay(int threads, int batchSize) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Threads and batch size must be positive: " + threads + ", " + batchSize);
+        }
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Replays all commands of the reader.
+     *
+     * @param boxOffice The BoxOffice object managing voyage operations.
+     * @param voyages   The registry of voyages to operate on.
+     * @param lines     The reader streaming the input lines containing commands.
+     */
+    public void run(BoxOffice boxOffice, VoyageRegistry voyages, CommandReader lines) {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "replay-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CommandDispatcher barrierDispatcher = new CommandDispatcher(boxOffice, voyages);
+        String[] batch = new String[batchSize];
+        byte[][] outputs = new byte[batchSize][];
+        RuntimeException[] failures = new RuntimeException[batchSize];
+        int[] order = new int[batchSize];
+        int[] offsets = new int[threads + 1];
+        try {
+            while (lines.hasNext()) {
+                int size = 0;
+                String barrier = null;
+                while (size < batchSize && lines.hasNext()) {
+                    String line = lines.next();
+                    if (isBarrier(line)) {
+                        barrier = line;
+                        break;
+                    }
+                    batch[size++] = line;
+                }
+                partition(batch, size, order, offsets);
+                executeBatch(workers, boxOffice, voyages, batch, order, offsets, outputs, failures);
+                //Writes the output in the original order of the commands.
+                for (int seq = 0; seq < size; seq++) {
+                    if (outputs[seq] != null) {
+                        FileOutput.writeBytes(outputs[seq]);
+                    }
+                    if (failures[seq] != null) {
+                        throw failures[seq];
+                    }
+                    batch[seq] = null;
+                    outputs[seq] = null;
+                }
+                if (barrier != null) {
+                    barrierDispatcher.execute(barrier, !lines.hasNext());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs every shard of the batch on its own worker and waits until all of them finish.
+     */
+    private void executeBatch(ExecutorService workers, final BoxOffice boxOffice, final VoyageRegistry voyages,
+                              final String[] batch, final int[] order, final int[] offsets,
+                              final byte[][] outputs, final RuntimeException[] failures) {
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int shard = 0; shard < threads; shard++) {
+            final int from = offsets[shard];
+            final int to = offsets[shard + 1];
+            if (from == to) {
+                continue;
+            }
+            tasks.add(() -> {
+                CommandDispatcher dispatcher = new CommandDispatcher(boxOffice, voyages);
+                for (int i = from; i < to; i++) {
+                    int seq = order[i];
+                    FileOutput.beginCapture();
+                    try {
+                        dispatcher.execute(batch[seq], false);
+                    } catch (RuntimeException e) { //The serial run would stop here, so the rest of the shard is skipped.
+                        failures[seq] = e;
+                        return null;
+                    } finally {
+                        outputs[seq] = FileOutput.endCapture();
+                    }
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : workers.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replay was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay worker failed", e.getCause());
+        }
+    }
+
+    /**
+     * Sorts the command indices of the batch by shard, keeping the original order inside each shard.
+     *
+     * @param batch   The commands.
+     * @param size    The number of commands in the batch.
+     * @param order   Receives the command indices grouped by shard.
+     * @param offsets Receives where each shard starts in order, with the end of the last shard at the end.
+     */
+    private void partition(String[] batch, int size, int[] order, int[] offsets) {
+        int[] shards = new int[size];
+        Arrays.fill(offsets, 0);
+        for (int seq = 0; seq < size; seq++) {
+            shards[seq] = shardOf(batch[seq]);
+            offsets[shards[seq] + 1]++;
+        }
+        for (int shard = 0; shard < threads; shard++) {
+            offsets[shard + 1] += offsets[shard];
+        }
+        int[] next = Arrays.copyOf(offsets, threads);
+        for (int seq = 0; seq < size; seq++) {
+            order[next[shards[seq]]++] = seq;
+        }
+    }
+
+    /**
+     * Returns the shard of a command, chosen by the voyage ID it touches.
+     * Commands without a readable voyage ID only print an error and go to the first shard.
+     *
+     * @param line The command line.
+     * @return The shard of the command.
+     */
+    private int shardOf(String line) {
+        int end = line.indexOf('\t');
+        if (end < 0) {
+            return 0;
+        }
+        int field = line.startsWith("INIT_VOYAGE\t") ? 2 : 1;
+        int start = end + 1;
+        for (int i = 1; i < field; i++) {
+            start = line.indexOf('\t', start) + 1;
+            if (start == 0) {
+                return 0;
+            }
+        }
+        end = line.indexOf('\t', start);
+        if (end < 0) {
+            end = line.length();
+        }
+        int voyageID = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                voyageID = voyageID * 10 + (c - '0');
+            } else if (c != '-' && c != '+') {
+                return 0;
+            }
+        }
+        return (int) (((voyageID * GOLDEN_RATIO) & 0xFFFFFFFFL) * threads >>> 32);
+    }
+
+    /**
+     * Checks whether the command is a Z_REPORT or a QUERY_ROUTE, which have to see every earlier command and run alone,
+     * or a command of the seat holds, whose hold IDs are handed out in the order of the input.
+     *
+     * @param line The command line.
+     * @return True if the command is a barrier.
+     */
+    private static boolean isBarrier(String line) {
+        return line.equals("Z_REPORT") || line.startsWith("Z_REPORT\t") || line.startsWith("QUERY_ROUTE\t")
+                || line.startsWith("HOLD\t") || line.startsWith("CONFIRM\t") || line.startsWith("RELEASE\t")
+                || line.startsWith("ADVANCE_CLOCK\t");
+    }
+}
@@ -1,14 +1,14 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * Represents a Premium voyage.
  */
 public class Premium extends Voyage {
-    private ArrayList<String> numberOfRows;
+    private static final int REGULAR_SEAT = 0;
+    private static final int PREMIUM_SEAT = 1;
+
+    private SeatMap seatMap;
     private float refundCut;
     private float premiumFee;
+    private float premiumSeatFee;
 
     /**
      * Constructs a Premium voyage with the given parameters.
@@ -22,10 +22,32 @@ public class Premium extends Voyage {
      * @param premiumFee The additional fee for premium seats.
      */
     public Premium(int voyageID, String fromWhere, String toWhere, float seatFee, int row, float refundCut, float premiumFee) {
+        this(voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee, SeatMap.create(row * 3));
+    }
+
+    /**
+     * Constructs a Premium voyage whose seats are kept in the given seat map.
+     *
+     * @param voyageID   The ID of the voyage.
+     * @param fromWhere  The departure location of the voyage.
+     * @param toWhere    The destination of the voyage.
+     * @param seatFee    The fee for each seat on the voyage.
+     * @param row        The number of rows in the premium voyage.
+     * @param refundCut  The percentage of refund cut for the voyage.
+     * @param premiumFee The additional fee for premium seats.
+     * @param seatMap    The seat map holding row * 3 seats.
+     */
+    public Premium(int voyageID, String fromWhere, String toWhere, float seatFee, int row, float refundCut,
+                   float premiumFee, SeatMap seatMap) {
         super(voyageID, fromWhere, toWhere, seatFee, row);
         this.refundCut = refundCut;
         this.premiumFee = premiumFee;
-        this.numberOfRows = new ArrayList<>(Collections.nCopies(row * 3, "*"));
+        this.seatMap = seatMap;
+        this.premiumSeatFee = (seatFee * ((premiumFee + 100)) / 100);
+        long price = Money.fromLira(seatFee);
+        long premiumPrice = Money.percentOf(price, premiumFee + 100);
+        setPriceTable(new long[]{price, premiumPrice},
+                new long[]{Money.percentOf(price, 100 - refundCut), Money.percentOf(premiumPrice, 100 - refundCut)});
     }
 
     @Override
@@ -34,19 +56,26 @@ public class Premium extends Voyage {
     }
 
     /**
-     * Calculates and returns the seat fee for the given seat number.
-     * If the seat is a premium seat, calculates the fee including the premium fee.
+     * Returns the seat fee for the given seat number.
+     * If the seat is a premium seat, returns the fee including the premium fee, which is computed once.
      *
-     * @param seatNumber The seat number for which to calculate the fee.
-     * @return The calculated seat fee.
+     * @param seatNumber The seat number for which to return the fee.
+     * @return The seat fee.
      */
     @Override
     public float getSeatFee(int seatNumber) {
-        if (seatNumber % 3 == 1) {
-            return (super.getSeatFee(seatNumber) * ((getPremiumFee() + 100)) / 100);
-        } else {
-            return super.getSeatFee(seatNumber);
-        }
+        return getSeatClass(seatNumber) == PREMIUM_SEAT ? premiumSeatFee : super.getSeatFee(seatNumber);
+    }
+
+    /**
+     * Returns the class of a seat: the first seat of every row is a premium seat.
+     *
+     * @param seatNumber The seat number.
+     * @return PREMIUM_SEAT for premium seats, REGULAR_SEAT otherwise.
+     */
+    @Override
+    protected int getSeatClass(int seatNumber) {
+        return seatNumber % 3 == 1 ? PREMIUM_SEAT : REGULAR_SEAT;
     }
 
     /**
@@ -61,7 +90,27 @@ public class Premium extends Voyage {
     }
 
     @Override
-    public List<String> getNumberOfSeats() {
-        return numberOfRows;
+    public SeatMap getSeatMap() {
+        return seatMap;
+    }
+
+    @Override
+    public int getSeatsPerRow() {
+        return 3;
+    }
+
+    @Override
+    public int getAisleIndex() {
+        return 0;
+    }
+
+    @Override
+    public String getTypeName() {
+        return "Premium";
+    }
+
+    @Override
+    public float getRefundCutPercentage() {
+        return refundCut;
     }
 }
@@ -0,0 +1,242 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ReportRenderer builds the output messages straight into a reusable UTF-8 byte buffer, so reporting a command
+ * parses no format string and creates no Formatter, String or intermediate byte array.
+ * Every thread has its own renderer, taken with begin, which must not be kept across another begin of the same
+ * thread. The output is byte-identical to the String.format patterns the messages were written with before.
+ */
+public final class ReportRenderer {
+    private static final ThreadLocal<ReportRenderer> RENDERERS = ThreadLocal.withInitial(ReportRenderer::new);
+    private static final double FORMATTER_EXACT_LIMIT = 0x1p53; //Above this "%.2f" prints rounded digits.
+    private static final long[] POWERS_OF_TEN = {1, 10, 100};
+
+    private byte[] bytes;
+    private int length;
+
+    public ReportRenderer() {
+        this(256);
+    }
+
+    /**
+     * Constructs a ReportRenderer that is not bound to a thread.
+     *
+     * @param capacity The initial capacity in bytes.
+     */
+    public ReportRenderer(int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    /**
+     * Starts a new message in the renderer of the calling thread.
+     *
+     * @return The empty renderer of the calling thread.
+     */
+    public static ReportRenderer begin() {
+        ReportRenderer renderer = RENDERERS.get();
+        renderer.length = 0;
+        return renderer;
+    }
+
+    /**
+     * Appends the text encoded as UTF-8, replacing unpaired surrogates with '?' as String.getBytes does.
+     *
+     * @param text The text to append.
+     * @return The renderer.
+     */
+    public ReportRenderer append(String text) {
+        return append(text, 0, text.length());
+    }
+
+    /**
+     * Appends a part of the text encoded as UTF-8.
+     *
+     * @param text  The text to append from.
+     * @param start The index of the first char.
+     * @param end   The index after the last char.
+     * @return The renderer.
+     */
+    public ReportRenderer append(String text, int start, int end) {
+        ensureCapacity((end - start) * 3);
+        byte[] buffer = bytes;
+        int position = length;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        length = position;
+        return this;
+    }
+
+    /**
+     * Appends an ASCII char.
+     *
+     * @param c The char, below 0x80.
+     * @return The renderer.
+     */
+    public ReportRenderer append(char c) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    public ReportRenderer append(int value) {
+        return append((long) value);
+    }
+
+    /**
+     * Appends the value in decimal as "%d" prints it.
+     *
+     * @param value The value.
+     * @return The renderer.
+     */
+    public ReportRenderer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Appends an amount as lira with two decimals, as Money.format prints it.
+     *
+     * @param amount The amount in millionths of a lira.
+     * @return The renderer.
+     */
+    public ReportRenderer appendMoney(long amount) {
+        if (amount < 0) {
+            append('-');
+        }
+        return appendDecimal(Money.toKurus(amount), 2);
+    }
+
+    /**
+     * Appends the value as "%.2f" (two decimals) or "%.0f" (no decimals) prints it. The value of a float is exact
+     * as a double and has far fewer digits than the shortest representation Formatter rounds, so rounding the
+     * exact binary value half up gives the same digits. Values beyond 2^53 are left to Formatter itself.
+     *
+     * @param value    The value.
+     * @param decimals 0 or 2.
+     * @return The renderer.
+     */
+    public ReportRenderer appendFixed(float value, int decimals) {
+        double exact = value;
+        if (!(Math.abs(exact) < FORMATTER_EXACT_LIMIT)) {
+            return append(String.format(decimals == 0 ? "%.0f" : "%.2f", exact));
+        }
+        long bits = Double.doubleToRawLongBits(exact);
+        if (bits < 0) {
+            append('-'); //Formatter keeps the sign of negative values that round to zero, and of -0.0.
+        }
+        int exponent = (int) (bits >>> 52) & 0x7FF;
+        long mantissa = bits & 0xFFFFFFFFFFFFFL;
+        if (exponent != 0) {
+            mantissa |= 1L << 52;
+        } else {
+            exponent = 1;
+        }
+        int shift = 1075 - exponent;
+        long scaled = mantissa * POWERS_OF_TEN[decimals];
+        long rounded;
+        if (shift <= 0) {
+            rounded = scaled << -shift;
+        } else if (shift >= 62) {
+            rounded = 0; //The scaled mantissa is below 2^60, so it rounds to zero.
+        } else {
+            rounded = (scaled >>> shift) + ((scaled >>> (shift - 1)) & 1);
+        }
+        return appendDecimal(rounded, decimals);
+    }
+
+    /**
+     * Appends the number as BookingSystem.formatNumber prints it: whole numbers without decimals,
+     * others with two.
+     *
+     * @param number The number.
+     * @return The renderer.
+     */
+    public ReportRenderer appendNumber(float number) {
+        return number == (int) number ? append((int) number) : appendFixed(number, 2);
+    }
+
+    /**
+     * Appends a non-negative amount of hundredths or units with the given number of decimals.
+     */
+    private ReportRenderer appendDecimal(long scaled, int decimals) {
+        long unit = POWERS_OF_TEN[decimals];
+        append(scaled / unit);
+        if (decimals > 0) {
+            long fraction = scaled % unit;
+            append('.');
+            if (fraction < 10) {
+                append('0');
+            }
+            append(fraction);
+        }
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns a copy of the rendered bytes, for callers that keep them.
+     *
+     * @return The rendered bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the rendered message followed by a new line, as FileOutput.writeToFile(message, true, true) does.
+     */
+    public void writeLine() {
+        append('\n');
+        FileOutput.writeBytes(bytes, 0, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + extra));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SalesTally keeps the running sales counters of a route or of the whole box office since the start of the run.
+ * Sales, refunds and cancellations add to it as they happen, so a summary reads a handful of counters instead of
+ * walking the seats of every voyage. Seats sold count the seats that are still sold: a refund or a cancellation
+ * takes its seats back out. Refunds paid include the full price returned for the seats of cancelled voyages.
+ * Counters are safe to update from many threads at once.
+ */
+public final class SalesTally {
+    private final String fromWhere;
+    private final String toWhere;
+    private final LongAdder seatsSold = new LongAdder();
+    private final LongAdder premiumSeatsSold = new LongAdder();
+    private final LongAdder grossSales = new LongAdder();
+    private final LongAdder refundsPaid = new LongAdder();
+
+    /**
+     * Constructs an empty SalesTally.
+     *
+     * @param fromWhere The departure city of the route, null for the whole box office.
+     * @param toWhere   The destination city of the route, null for the whole box office.
+     */
+    public SalesTally(String fromWhere, String toWhere) {
+        this.fromWhere = fromWhere;
+        this.toWhere = toWhere;
+    }
+
+    public String getFromWhere() {
+        return fromWhere;
+    }
+
+    public String getToWhere() {
+        return toWhere;
+    }
+
+    /**
+     * Counts a sale.
+     *
+     * @param seats        The number of seats sold.
+     * @param premiumSeats How many of them are premium seats.
+     * @param amount       The price of the seats in millionths of a lira.
+     */
+    public void recordSale(int seats, int premiumSeats, long amount) {
+        seatsSold.add(seats);
+        premiumSeatsSold.add(premiumSeats);
+        grossSales.add(amount);
+    }
+
+    /**
+     * Counts a refund, or the cancellation of a voyage with its sold seats.
+     *
+     * @param seats        The number of seats given back.
+     * @param premiumSeats How many of them are premium seats.
+     * @param amount       The amount paid back in millionths of a lira.
+     */
+    public void recordRefund(int seats, int premiumSeats, long amount) {
+        seatsSold.add(-seats);
+        premiumSeatsSold.add(-premiumSeats);
+        refundsPaid.add(amount);
+    }
+
+    public long getSeatsSold() {
+        return seatsSold.sum();
+    }
+
+    public long getPremiumSeatsSold() {
+        return premiumSeatsSold.sum();
+    }
+
+    /**
+     * Returns the price of every seat sold.
+     *
+     * @return The gross sales in millionths of a lira.
+     */
+    public long getGrossSales() {
+        return grossSales.sum();
+    }
+
+    /**
+     * Returns the amount paid back for refunds and cancellations.
+     *
+     * @return The refunds in millionths of a lira.
+     */
+    public long getRefundsPaid() {
+        return refundsPaid.sum();
+    }
+
+    /**
+     * Returns what the box office keeps of its sales.
+     *
+     * @return The gross sales less the refunds paid, in millionths of a lira.
+     */
+    public long getNetRevenue() {
+        return getGrossSales() - getRefundsPaid();
+    }
+}
@@ -0,0 +1,307 @@
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SeatHolds keeps the seats held by the HOLD command. A held seat is not sold, but no one else may sell or hold it
+ * until the hold is confirmed, released or expires. The held seats of a voyage are a bitmask beside its seat map,
+ * so checking a sale against the holds costs a word read per seat, and nothing at all while no seat is held.
+ * A voyage with holds is changed under its lock only, lock-free sales and refunds included, so a held seat is never
+ * claimed by a sale, not even for a moment.
+ * <p>
+ * Every hold has a timer on a TimingWheel, driven in milliseconds by the clock given at construction. Due holds
+ * are collected by expire, which every command calls first, so expiry costs O(1) per hold and never scans the
+ * voyages.
+ * <p>
+ * Holds live in memory only; they are not journaled, so a restart releases them. The changes of the holds of a
+ * voyage are made under the lock of the voyage, while the held bits can be read without it.
+ */
+public class SeatHolds {
+    private final Clock clock;
+    private final TimingWheel<Hold> wheel;
+    private final Map<Integer, Hold> holds = new ConcurrentHashMap<>();
+    private final Map<Integer, VoyageHolds> voyages = new ConcurrentHashMap<>();
+    private final AtomicInteger nextHoldID = new AtomicInteger(1);
+    private volatile long nextCheck = Long.MAX_VALUE; //No hold can be due before this time.
+
+    /**
+     * Hold is a set of seats of one voyage held until a deadline.
+     */
+    public static final class Hold {
+        private final int holdID;
+        private final int voyageID;
+        private final int[] seats;
+        private TimingWheel.Timer<Hold> timer;
+
+        private Hold(int holdID, int voyageID, int[] seats) {
+            this.holdID = holdID;
+            this.voyageID = voyageID;
+            this.seats = seats;
+        }
+
+        public int getHoldID() {
+            return holdID;
+        }
+
+        public int getVoyageID() {
+            return voyageID;
+        }
+
+        /**
+         * Returns the held seat numbers. The array is the one of the hold and must not be changed.
+         *
+         * @return The seat numbers as they were given to HOLD.
+         */
+        int[] getSeats() {
+            return seats;
+        }
+
+        /**
+         * Returns the held seat numbers as they were given to HOLD, joined by underscores.
+         *
+         * @return The seats in the form of a SELL_TICKET command.
+         */
+        public String getSeatText() {
+            StringBuilder text = new StringBuilder(seats.length * 4);
+            for (int i = 0; i < seats.length; i++) {
+                text.append(i == 0 ? "" : "_").append(seats[i]);
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * VoyageHolds holds the held seats of one voyage and its holds.
+     */
+    private static final class VoyageHolds {
+        private final AtomicLongArray bits;
+        private final List<Hold> holds = new ArrayList<>(2);
+
+        VoyageHolds(int numberOfSeats) {
+            bits = new AtomicLongArray((numberOfSeats + 63) >>> 6);
+        }
+    }
+
+    /**
+     * Constructs an empty SeatHolds.
+     *
+     * @param clock The clock the deadlines of the holds are measured with.
+     */
+    public SeatHolds(Clock clock) {
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(clock.millis());
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public boolean isEmpty() {
+        return holds.isEmpty();
+    }
+
+    /**
+     * Tells whether any seat of a voyage is held.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return True if the voyage has at least one hold.
+     */
+    public boolean hasHolds(int voyageID) {
+        return !voyages.isEmpty() && voyages.containsKey(voyageID);
+    }
+
+    /**
+     * Tells whether a seat is held.
+     *
+     * @param voyageID   The ID of the voyage.
+     * @param seatNumber The seat number, it must exist.
+     * @return True if the seat is held.
+     */
+    public boolean isHeld(int voyageID, int seatNumber) {
+        VoyageHolds held = voyages.get(voyageID);
+        if (held == null) {
+            return false;
+        }
+        int index = seatNumber - 1;
+        return (held.bits.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Tells whether any of the seats is held.
+     *
+     * @param voyageID    The ID of the voyage.
+     * @param seatNumbers The seat numbers, they must exist.
+     * @param count       The number of seat numbers to check.
+     * @return True if at least one of the seats is held.
+     */
+    public boolean anyHeld(int voyageID, int[] seatNumbers, int count) {
+        if (voyages.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (isHeld(voyageID, seatNumbers[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the held bits of consecutive seats as one mask, like SeatMap.soldMask.
+     *
+     * @param voyageID   The ID of the voyage.
+     * @param seatNumber The first seat number.
+     * @param width      The number of seats, between 1 and 64. Every seat must exist.
+     * @return The mask with a set bit for every held seat.
+     */
+    public long heldMask(int voyageID, int seatNumber, int width) {
+        VoyageHolds held = voyages.get(voyageID);
+        if (held == null) {
+            return 0;
+        }
+        int index = seatNumber - 1;
+        int wordIndex = index >>> 6;
+        int shift = index & 63;
+        long bits = held.bits.get(wordIndex) >>> shift;
+        if (shift + width > 64) {
+            bits |= held.bits.get(wordIndex + 1) << (64 - shift);
+        }
+        return width == 64 ? bits : bits & ((1L << width) - 1);
+    }
+
+    /**
+     * Marks a voyage as having holds before its first hold is placed, so the lock-free sales and refunds that start
+     * from now on take the voyage lock. The caller holds the lock of the voyage.
+     *
+     * @param voyageID      The ID of the voyage.
+     * @param numberOfSeats The number of seats of the voyage.
+     */
+    public void open(int voyageID, int numberOfSeats) {
+        voyages.computeIfAbsent(voyageID, id -> new VoyageHolds(numberOfSeats));
+    }
+
+    /**
+     * Removes the mark of open when no hold was placed after all. The caller holds the lock of the voyage.
+     *
+     * @param voyageID The ID of the voyage.
+     */
+    public void closeIfUnused(int voyageID) {
+        voyages.computeIfPresent(voyageID, (id, held) -> held.holds.isEmpty() ? null : held);
+    }
+
+    /**
+     * Holds seats of a voyage. The caller holds the lock of the voyage and has checked that the seats exist and
+     * are neither sold nor held.
+     *
+     * @param voyageID      The ID of the voyage.
+     * @param numberOfSeats The number of seats of the voyage.
+     * @param seats         The seat numbers, copied by the hold.
+     * @param count         The number of seat numbers.
+     * @param millis        How long the seats are held, in milliseconds.
+     * @return The new hold.
+     */
+    public Hold hold(int voyageID, int numberOfSeats, int[] seats, int count, long millis) {
+        Hold hold = new Hold(nextHoldID.getAndIncrement(), voyageID, Arrays.copyOf(seats, count));
+        VoyageHolds held = voyages.computeIfAbsent(voyageID, id -> new VoyageHolds(numberOfSeats));
+        for (int seat : hold.seats) {
+            int index = seat - 1;
+            held.bits.set(index >>> 6, held.bits.get(index >>> 6) | 1L << index);
+        }
+        held.holds.add(hold);
+        holds.put(hold.holdID, hold);
+        long deadline = clock.millis() + millis;
+        synchronized (this) {
+            hold.timer = wheel.schedule(hold, deadline);
+            nextCheck = Math.min(nextCheck, deadline);
+        }
+        return hold;
+    }
+
+    /**
+     * Returns an active hold.
+     *
+     * @param holdID The ID of the hold.
+     * @return The hold, null if there is no such hold or it has been confirmed, released or expired.
+     */
+    public Hold get(int holdID) {
+        return holds.get(holdID);
+    }
+
+    /**
+     * Ends a hold and frees its seats. The caller holds the lock of the voyage of the hold.
+     *
+     * @param hold The hold.
+     * @return True if the hold was active, false if it has ended already.
+     */
+    public boolean release(Hold hold) {
+        if (!holds.remove(hold.holdID, hold)) {
+            return false;
+        }
+        synchronized (this) {
+            wheel.cancel(hold.timer);
+        }
+        VoyageHolds held = voyages.get(hold.voyageID);
+        held.holds.remove(hold);
+        if (held.holds.isEmpty()) {
+            voyages.remove(hold.voyageID);
+            return true;
+        }
+        for (int seat : hold.seats) {
+            int index = seat - 1;
+            held.bits.set(index >>> 6, held.bits.get(index >>> 6) & ~(1L << index));
+        }
+        return true;
+    }
+
+    /**
+     * Ends every hold of a voyage, as the voyage is cancelled. The caller holds the lock of the voyage.
+     *
+     * @param voyageID The ID of the voyage.
+     */
+    public void releaseAll(int voyageID) {
+        VoyageHolds held = voyages.remove(voyageID);
+        if (held == null) {
+            return;
+        }
+        for (Hold hold : held.holds) {
+            holds.remove(hold.holdID, hold);
+            synchronized (this) {
+                wheel.cancel(hold.timer);
+            }
+        }
+    }
+
+    /**
+     * Takes the holds whose deadline has passed off the wheel. The caller frees their seats with release under
+     * the lock of each voyage. Until the earliest occupied slot of the wheel is due, it costs a clock read.
+     *
+     * @return The expired holds, empty if none is due.
+     */
+    public List<Hold> expire() {
+        long now = clock.millis();
+        if (now < nextCheck) {
+            return Collections.emptyList();
+        }
+        List<Hold> expired = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(now, expired::add);
+            nextCheck = wheel.nextDeadline();
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the number of active holds.
+     *
+     * @return The number of holds.
+     */
+    public int size() {
+        return holds.size();
+    }
+}
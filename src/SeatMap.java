@@ -0,0 +1,250 @@
+/**
+ * SeatMap keeps the sale state of the seats of a voyage as a bitset packed into long words.
+ * A set bit means the seat is sold, a clear bit means it is free. Seats are addressed by their seat numbers,
+ * which start from 1 as they do in the commands.
+ * The read side is shared here; how the words are stored and changed is decided by the subclasses.
+ */
+public abstract class SeatMap {
+    protected static final int WORD_SHIFT = 6;
+    protected static final int WORD_MASK = 63;
+    private static final boolean LOCK_FREE = "lockfree".equals(System.getProperty("booking.seatStore"));
+
+    private final int numberOfSeats;
+
+    /**
+     * Constructs a SeatMap with every seat free.
+     *
+     * @param numberOfSeats The number of seats of the voyage.
+     */
+    protected SeatMap(int numberOfSeats) {
+        this.numberOfSeats = numberOfSeats;
+    }
+
+    /**
+     * Creates the seat map configured for this run, the lock-free one if -Dbooking.seatStore=lockfree is given.
+     *
+     * @param numberOfSeats The number of seats of the voyage.
+     * @return The new seat map with every seat free.
+     */
+    public static SeatMap create(int numberOfSeats) {
+        return LOCK_FREE ? new AtomicSeatMap(numberOfSeats) : new PackedSeatMap(numberOfSeats);
+    }
+
+    /**
+     * Returns the number of words needed for the given number of seats.
+     *
+     * @param numberOfSeats The number of seats.
+     * @return The number of words.
+     */
+    protected static int wordsFor(int numberOfSeats) {
+        return (numberOfSeats + WORD_MASK) >>> WORD_SHIFT;
+    }
+
+    /**
+     * Returns the word at the given index.
+     *
+     * @param index The index of the word.
+     * @return The word.
+     */
+    protected abstract long word(int index);
+
+    /**
+     * Returns the number of words of the map.
+     *
+     * @return The number of words.
+     */
+    protected abstract int wordCount();
+
+    public abstract void sell(int seatNumber);
+
+    public abstract void release(int seatNumber);
+
+    /**
+     * Sells all given seats if every one of them is free, otherwise sells none of them.
+     * A seat listed more than once is sold once. Every seat must exist.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param count       The number of seat numbers to sell.
+     * @return True if the seats were sold, false if any of them was already sold.
+     */
+    public abstract boolean claim(int[] seatNumbers, int count);
+
+    /**
+     * Releases all given seats if every one of them is sold, otherwise releases none of them.
+     * A seat listed more than once is released once. Every seat must exist.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param count       The number of seat numbers to release.
+     * @return True if the seats were released, false if any of them was already empty.
+     */
+    public abstract boolean releaseAll(int[] seatNumbers, int count);
+
+    /**
+     * Tells whether claim and releaseAll are atomic without any lock held by the caller, for seats that fall into
+     * one word of the map. A claim or release spanning several words changes them one at a time, so other threads
+     * may see it half done; it is made under the voyage lock with the lock-free sales and refunds kept out.
+     *
+     * @return True for lock-free maps, false otherwise.
+     */
+    public abstract boolean isLockFree();
+
+    /**
+     * Tells whether the seats all fall into one word of the map, so a lock-free map claims or releases them with a
+     * single compare-and-set.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param count       The number of seat numbers.
+     * @return True if every seat is in the word of the first one, or there is no seat.
+     */
+    public boolean inOneWord(int[] seatNumbers, int count) {
+        for (int i = 1; i < count; i++) {
+            if ((seatNumbers[i] - 1) >> WORD_SHIFT != (seatNumbers[0] - 1) >> WORD_SHIFT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of seats of the voyage.
+     *
+     * @return The number of seats.
+     */
+    public int size() {
+        return numberOfSeats;
+    }
+
+    /**
+     * Checks whether the given number is a seat of this map.
+     *
+     * @param seatNumber The seat number.
+     * @return True if the seat exists, false otherwise.
+     */
+    public boolean exists(int seatNumber) {
+        return seatNumber - 1 >= 0 && seatNumber - 1 < numberOfSeats;
+    }
+
+    /**
+     * Checks whether every given seat exists. The seats are checked without branching on each one.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param count       The number of seat numbers to check.
+     * @return True if all seats exist, false otherwise.
+     */
+    public boolean allExist(int[] seatNumbers, int count) {
+        int outOfRange = 0;
+        for (int i = 0; i < count; i++) {
+            int index = seatNumbers[i] - 1;
+            outOfRange |= index | (numberOfSeats - 1 - index);
+        }
+        return outOfRange >= 0;
+    }
+
+    public boolean isSold(int seatNumber) {
+        int index = seatNumber - 1;
+        return (word(index >>> WORD_SHIFT) & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the sale bits of consecutive seats as one mask, the first seat in the lowest bit. The seats may
+     * span two words, which are joined with one shift each.
+     *
+     * @param seatNumber The first seat number.
+     * @param width      The number of seats, between 1 and 64. Every seat must exist.
+     * @return The mask with a set bit for every sold seat.
+     */
+    public long soldMask(int seatNumber, int width) {
+        int index = seatNumber - 1;
+        int wordIndex = index >>> WORD_SHIFT;
+        int shift = index & WORD_MASK;
+        long bits = word(wordIndex) >>> shift;
+        if (shift + width > 64) {
+            bits |= word(wordIndex + 1) << (64 - shift);
+        }
+        return width == 64 ? bits : bits & ((1L << width) - 1);
+    }
+
+    /**
+     * Counts how many of the given seats are sold. Every seat must exist.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param count       The number of seat numbers to check.
+     * @return The number of sold seats among them, a seat listed twice is counted twice.
+     */
+    public int countSold(int[] seatNumbers, int count) {
+        int sold = 0;
+        for (int i = 0; i < count; i++) {
+            int index = seatNumbers[i] - 1;
+            sold += (int) ((word(index >>> WORD_SHIFT) >>> index) & 1L);
+        }
+        return sold;
+    }
+
+    /**
+     * Returns the number of sold seats of the voyage.
+     *
+     * @return The number of sold seats.
+     */
+    public int soldCount() {
+        int sold = 0;
+        for (int i = 0, n = wordCount(); i < n; i++) {
+            sold += Long.bitCount(word(i));
+        }
+        return sold;
+    }
+
+    public int freeCount() {
+        return numberOfSeats - soldCount();
+    }
+
+    public boolean anySold() {
+        for (int i = 0, n = wordCount(); i < n; i++) {
+            if (word(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first sold seat whose number is greater than or equal to the given one.
+     *
+     * @param seatNumber The seat number to start from.
+     * @return The sold seat number, 0 if there is no such seat.
+     */
+    public int nextSold(int seatNumber) {
+        int index = seatNumber - 1;
+        if (index >= numberOfSeats) {
+            return 0;
+        }
+        int wordIndex = index >>> WORD_SHIFT;
+        long word = word(wordIndex) & (-1L << index);
+        while (true) {
+            if (word != 0) {
+                return (wordIndex << WORD_SHIFT) + Long.numberOfTrailingZeros(word) + 1;
+            }
+            if (++wordIndex == wordCount()) {
+                return 0;
+            }
+            word = word(wordIndex);
+        }
+    }
+
+    /**
+     * Collects the bits of the given seats that fall into one word.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param count       The number of seat numbers.
+     * @param wordIndex   The index of the word.
+     * @return The mask of the seats in that word.
+     */
+    protected static long maskOf(int[] seatNumbers, int count, int wordIndex) {
+        long mask = 0;
+        for (int i = 0; i < count; i++) {
+            int index = seatNumbers[i] - 1;
+            long inWord = (index >>> WORD_SHIFT) == wordIndex ? -1L : 0L;
+            mask |= (1L << index) & inWord;
+        }
+        return mask;
+    }
+}
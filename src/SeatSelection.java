@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * SeatSelection holds the seat numbers of a SELL_TICKET or REFUND_TICKET command, parsed once into a reusable
+ * int buffer. It keeps the positions of the seats in the command text as well, so error and success messages
+ * can quote the seats exactly as they were written.
+ */
+public class SeatSelection {
+    private String source = "";
+    private int start;
+    private int end;
+    private int[] seats = new int[8];
+    private int[] tokenStarts = new int[8];
+    private int[] tokenEnds = new int[8];
+    private int count;
+
+    /**
+     * Parses seat numbers separated by underscores.
+     *
+     * @param seats The seat numbers, for example "1_2_3".
+     * @return The parsed selection.
+     */
+    public static SeatSelection of(String seats) {
+        SeatSelection selection = new SeatSelection();
+        selection.parse(seats, 0, seats.length());
+        return selection;
+    }
+
+    /**
+     * Parses the seat numbers found in the given part of a text, replacing the previous content of the selection.
+     * Empty seats at the end are dropped as String.split drops them.
+     *
+     * @param source The text holding the seat numbers.
+     * @param start  The start of the seat numbers in the text.
+     * @param end    The end of the seat numbers in the text, exclusive.
+     */
+    public void parse(String source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        count = 0;
+        int tokenStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || source.charAt(i) == '_') {
+                if (count == seats.length) {
+                    grow();
+                }
+                tokenStarts[count] = tokenStart;
+                tokenEnds[count] = i;
+                count++;
+                tokenStart = i + 1;
+            }
+        }
+        if (count > 1) {
+            while (count > 0 && tokenStarts[count - 1] == tokenEnds[count - 1]) {
+                count--;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            seats[i] = CommandTokenizer.parseInt(source, tokenStarts[i], tokenEnds[i]);
+        }
+    }
+
+    /**
+     * Returns the number of seats.
+     *
+     * @return The number of seats.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Returns the seat number at the given position.
+     *
+     * @param index The position of the seat in the command.
+     * @return The seat number.
+     */
+    public int seat(int index) {
+        return seats[index];
+    }
+
+    /**
+     * Returns the buffer holding the seat numbers. Only the first count() entries are valid.
+     *
+     * @return The seat numbers.
+     */
+    public int[] seats() {
+        return seats;
+    }
+
+    /**
+     * Returns the seat at the given position as it is written in the command.
+     *
+     * @param index The position of the seat in the command.
+     * @return The seat text.
+     */
+    public String token(int index) {
+        return source.substring(tokenStarts[index], tokenEnds[index]);
+    }
+
+    /**
+     * Appends the seats as they are written in the command, with the underscores replaced by dashes.
+     *
+     * @param builder The builder to append to.
+     * @return The builder.
+     */
+    public StringBuilder appendDashed(StringBuilder builder) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            builder.append(c == '_' ? '-' : c);
+        }
+        return builder;
+    }
+
+    /**
+     * Appends the seats as they are written in the command, with the underscores replaced by dashes.
+     *
+     * @param renderer The renderer to append to.
+     * @return The renderer.
+     */
+    public ReportRenderer appendDashed(ReportRenderer renderer) {
+        int from = start;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '_') {
+                renderer.append(source, from, i).append('-');
+                from = i + 1;
+            }
+        }
+        return renderer.append(source, from, end);
+    }
+
+    /**
+     * Returns the seats as they are written in the command, with the underscores replaced by dashes.
+     *
+     * @return The dashed seats.
+     */
+    public String toDashedString() {
+        return appendDashed(new StringBuilder(end - start)).toString();
+    }
+
+    private void grow() {
+        int capacity = seats.length << 1;
+        seats = Arrays.copyOf(seats, capacity);
+        tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+        tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+    }
+}
@@ -0,0 +1,371 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * SlabStore keeps voyages off the heap, so millions of live voyages add nothing for the old generation to trace.
+ * Every voyage is a fixed-size record in a direct ByteBuffer slab, and its seat bits are a block of words in the
+ * slabs of its size class, blocks of one class being a power of two words long. The records and blocks of
+ * cancelled voyages go on free lists and are reused by the next voyages, so the slabs only grow with the peak
+ * number of live voyages. IDs are mapped to records by an open addressing table of primitive ints.
+ * <p>
+ * A voyage taken from the store is a short-lived view over its record, created on every lookup: it reads the
+ * record once, its seat map works on the slab, and its revenue, refund and sales counters are written back to the
+ * record. A view whose record has been reused since is stale, see Voyage.isStale.
+ * <p>
+ * The store is not thread-safe; VoyageRegistry guards it with its lock. Views change their own records and seat
+ * blocks under the lock of their voyage.
+ */
+public class SlabStore implements VoyageStore {
+    private static final int SLAB_SHIFT = 20; //1 MB slabs.
+    private static final int RECORD_SIZE = 72; //Records do not straddle slabs, the tail of a slab stays unused.
+    private static final int RECORDS_PER_SLAB = (1 << SLAB_SHIFT) / RECORD_SIZE;
+    private static final int ID = 0;
+    private static final int TYPE = 4;
+    private static final int LIVE = 5;
+    private static final int ROW = 8;
+    private static final int FROM = 12;
+    private static final int TO = 16;
+    private static final int SEAT_FEE = 20;
+    private static final int REFUND_CUT = 24;
+    private static final int PREMIUM_FEE = 28;
+    private static final int REVENUE = 32;
+    private static final int SEAT_CLASS = 40;
+    private static final int SEAT_BLOCK = 44;
+    private static final int SOLD_VALUE = 48;
+    private static final int SEATS_SOLD = 56;
+    private static final int PREMIUM_SEATS_SOLD = 60;
+    private static final int REFUNDS_PAID = 64;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private final CityTable cities = new CityTable();
+    private final SeatClass[] seatClasses = new SeatClass[32];
+    private volatile ByteBuffer[] recordSlabs = new ByteBuffer[4];
+    private int recordCount;
+    private int[] freeRecords = new int[16];
+    private int freeRecordCount;
+    private long offHeapBytes;
+    //The table from IDs to records, an empty slot holds -1.
+    private int[] keys = new int[16];
+    private int[] records = emptySlots(16);
+    private int size;
+
+    /**
+     * SeatClass allocates the seat blocks of one size from slabs of its own.
+     */
+    private final class SeatClass {
+        final int blockBytes;
+        final int blocksPerSlab;
+        ByteBuffer[] slabs = new ByteBuffer[4];
+        int blockCount;
+        int[] free = new int[16];
+        int freeCount;
+
+        SeatClass(int words) {
+            blockBytes = words << 3;
+            blocksPerSlab = Math.max(1, (1 << SLAB_SHIFT) / blockBytes);
+        }
+
+        int allocate() {
+            int block;
+            if (freeCount > 0) {
+                block = free[--freeCount];
+            } else {
+                block = blockCount++;
+                int slab = block / blocksPerSlab;
+                if (slab == slabs.length) {
+                    slabs = Arrays.copyOf(slabs, slab << 1);
+                }
+                if (slabs[slab] == null) {
+                    slabs[slab] = ByteBuffer.allocateDirect(blocksPerSlab * blockBytes);
+                    offHeapBytes += (long) blocksPerSlab * blockBytes;
+                }
+            }
+            ByteBuffer slab = slab(block);
+            int base = base(block);
+            for (int i = 0; i < blockBytes; i += 8) { //A reused block still holds the seats of its last voyage.
+                slab.putLong(base + i, 0);
+            }
+            return block;
+        }
+
+        void release(int block) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount << 1);
+            }
+            free[freeCount++] = block;
+        }
+
+        ByteBuffer slab(int block) {
+            return slabs[block / blocksPerSlab];
+        }
+
+        int base(int block) {
+            return block % blocksPerSlab * blockBytes;
+        }
+    }
+
+    /**
+     * Copies a voyage into the store unless there is already a voyage with the same ID.
+     *
+     * @param voyage The voyage to copy, it is not used by the store afterwards.
+     * @return True if the voyage was stored, false if its ID is already taken.
+     */
+    public boolean add(Voyage voyage) {
+        int voyageID = voyage.getVoyageID();
+        if (find(voyageID) >= 0) {
+            return false;
+        }
+        int record = allocateRecord();
+        ByteBuffer slab = recordSlabs[record / RECORDS_PER_SLAB];
+        int offset = record % RECORDS_PER_SLAB * RECORD_SIZE;
+        SeatMap seatMap = voyage.getSeatMap();
+        int seatClass = seatClassOf(seatMap.wordCount());
+        int block = seatClass(seatClass).allocate();
+        slab.putInt(offset + ID, voyageID);
+        slab.put(offset + TYPE, MappedCatalog.typeOf(voyage));
+        slab.put(offset + LIVE, (byte) 1);
+        slab.putInt(offset + ROW, voyage.getRow());
+        slab.putInt(offset + FROM, cities.id(voyage.getFromWhere()));
+        slab.putInt(offset + TO, cities.id(voyage.getToWhere()));
+        slab.putFloat(offset + SEAT_FEE, voyage.getRegularSeatFee());
+        slab.putFloat(offset + REFUND_CUT, voyage.getRefundCutPercentage());
+        slab.putFloat(offset + PREMIUM_FEE, voyage.getPremiumFee());
+        slab.putLong(offset + REVENUE, voyage.getRevenueMicros());
+        slab.putInt(offset + SEAT_CLASS, seatClass);
+        slab.putInt(offset + SEAT_BLOCK, block);
+        slab.putLong(offset + SOLD_VALUE, voyage.getSoldValue());
+        slab.putInt(offset + SEATS_SOLD, voyage.getSeatsSold());
+        slab.putInt(offset + PREMIUM_SEATS_SOLD, voyage.getPremiumSeatsSold());
+        slab.putLong(offset + REFUNDS_PAID, voyage.getRefundsPaid());
+        SeatClass seats = seatClasses[seatClass];
+        ByteBuffer seatSlab = seats.slab(block);
+        int base = seats.base(block);
+        for (int i = 0; i < seatMap.wordCount(); i++) {
+            seatSlab.putLong(base + (i << 3), seatMap.word(i));
+        }
+        put(voyageID, record);
+        return true;
+    }
+
+    /**
+     * Returns a view of the voyage with the given ID.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return A new view of the voyage, null if there is no voyage with that ID.
+     */
+    public Voyage get(int voyageID) {
+        int record = find(voyageID);
+        return record < 0 ? null : view(record, null);
+    }
+
+    /**
+     * Removes the voyage with the given ID and gives its record and seat block back for reuse.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return A copy of the removed voyage on the heap, which stays valid after the record is reused; null if
+     *         there is no voyage with that ID.
+     */
+    public Voyage remove(int voyageID) {
+        int record = find(voyageID);
+        if (record < 0) {
+            return null;
+        }
+        ByteBuffer slab = recordSlabs[record / RECORDS_PER_SLAB];
+        int offset = record % RECORDS_PER_SLAB * RECORD_SIZE;
+        SeatMap seats = view(record, null).getSeatMap();
+        SeatMap copy = new PackedSeatMap(seats.size());
+        for (int seat = seats.nextSold(1); seat != 0; seat = seats.nextSold(seat + 1)) {
+            copy.sell(seat);
+        }
+        Voyage removed = view(record, copy);
+        slab.put(offset + LIVE, (byte) 0);
+        seatClasses[slab.getInt(offset + SEAT_CLASS)].release(slab.getInt(offset + SEAT_BLOCK));
+        if (freeRecordCount == freeRecords.length) {
+            freeRecords = Arrays.copyOf(freeRecords, freeRecordCount << 1);
+        }
+        freeRecords[freeRecordCount++] = record;
+        delete(voyageID);
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the bytes allocated in direct slabs for records and seats.
+     *
+     * @return The off-heap size of the store.
+     */
+    public long offHeapBytes() {
+        return offHeapBytes;
+    }
+
+    @Override
+    public void storeRevenue(int record, long revenue) {
+        recordSlabs[record / RECORDS_PER_SLAB].putLong(record % RECORDS_PER_SLAB * RECORD_SIZE + REVENUE, revenue);
+    }
+
+    @Override
+    public void storeRefunds(int record, long refundsPaid) {
+        recordSlabs[record / RECORDS_PER_SLAB].putLong(record % RECORDS_PER_SLAB * RECORD_SIZE + REFUNDS_PAID,
+                refundsPaid);
+    }
+
+    @Override
+    public void storeSales(int record, int seatsSold, int premiumSeatsSold, long soldValue) {
+        ByteBuffer slab = recordSlabs[record / RECORDS_PER_SLAB];
+        int offset = record % RECORDS_PER_SLAB * RECORD_SIZE;
+        slab.putLong(offset + SOLD_VALUE, soldValue);
+        slab.putInt(offset + SEATS_SOLD, seatsSold);
+        slab.putInt(offset + PREMIUM_SEATS_SOLD, premiumSeatsSold);
+    }
+
+    @Override
+    public boolean holds(int record, int voyageID) {
+        ByteBuffer slab = recordSlabs[record / RECORDS_PER_SLAB];
+        int offset = record % RECORDS_PER_SLAB * RECORD_SIZE;
+        return slab.get(offset + LIVE) == 1 && slab.getInt(offset + ID) == voyageID;
+    }
+
+    /**
+     * Creates a voyage over a record.
+     *
+     * @param seatMap The seat map of the voyage, null for a view of the seat block in the slab.
+     * @return The voyage, bound to the record unless a seat map is given.
+     */
+    private Voyage view(int record, SeatMap seatMap) {
+        ByteBuffer slab = recordSlabs[record / RECORDS_PER_SLAB];
+        int offset = record % RECORDS_PER_SLAB * RECORD_SIZE;
+        int voyageID = slab.getInt(offset + ID);
+        int row = slab.getInt(offset + ROW);
+        String fromWhere = cities.name(slab.getInt(offset + FROM));
+        String toWhere = cities.name(slab.getInt(offset + TO));
+        float seatFee = slab.getFloat(offset + SEAT_FEE);
+        float refundCut = slab.getFloat(offset + REFUND_CUT);
+        byte type = slab.get(offset + TYPE);
+        boolean bound = seatMap == null;
+        if (bound) {
+            SeatClass seats = seatClasses[slab.getInt(offset + SEAT_CLASS)];
+            int block = slab.getInt(offset + SEAT_BLOCK);
+            int seatsPerRow = type == MappedCatalog.STANDARD ? 4 : type == MappedCatalog.PREMIUM ? 3 : 2;
+            seatMap = new MappedSeatMap(seats.slab(block), seats.base(block), row * seatsPerRow);
+        }
+        Voyage voyage;
+        switch (type) {
+            case MappedCatalog.STANDARD:
+                voyage = new Standard(voyageID, fromWhere, toWhere, seatFee, row, refundCut, seatMap);
+                break;
+            case MappedCatalog.PREMIUM:
+                voyage = new Premium(voyageID, fromWhere, toWhere, seatFee, row, refundCut,
+                        slab.getFloat(offset + PREMIUM_FEE), seatMap);
+                break;
+            default:
+                voyage = new Minibus(voyageID, fromWhere, toWhere, seatFee, row, seatMap);
+                break;
+        }
+        voyage.addRevenue(slab.getLong(offset + REVENUE));
+        voyage.setRefundsPaid(slab.getLong(offset + REFUNDS_PAID));
+        voyage.setSales(slab.getInt(offset + SEATS_SOLD), slab.getInt(offset + PREMIUM_SEATS_SOLD),
+                slab.getLong(offset + SOLD_VALUE));
+        if (bound) {
+            voyage.bindStore(this, record);
+        }
+        return voyage;
+    }
+
+    private int allocateRecord() {
+        if (freeRecordCount > 0) {
+            return freeRecords[--freeRecordCount];
+        }
+        int record = recordCount++;
+        int slab = record / RECORDS_PER_SLAB;
+        ByteBuffer[] slabs = recordSlabs;
+        if (slab == slabs.length) {
+            slabs = Arrays.copyOf(slabs, slab << 1);
+        }
+        if (slabs[slab] == null) {
+            slabs[slab] = ByteBuffer.allocateDirect(RECORDS_PER_SLAB * RECORD_SIZE);
+            offHeapBytes += RECORDS_PER_SLAB * RECORD_SIZE;
+        }
+        recordSlabs = slabs;
+        return record;
+    }
+
+    private SeatClass seatClass(int seatClass) {
+        if (seatClasses[seatClass] == null) {
+            seatClasses[seatClass] = new SeatClass(1 << seatClass);
+        }
+        return seatClasses[seatClass];
+    }
+
+    /**
+     * Returns the size class of a seat block: the number of words rounded up to a power of two.
+     */
+    private static int seatClassOf(int words) {
+        return words <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(words - 1);
+    }
+
+    private int slotOf(int voyageID) {
+        return (voyageID * GOLDEN_RATIO) >>> (Integer.numberOfLeadingZeros(keys.length) + 1);
+    }
+
+    private int find(int voyageID) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(voyageID); records[slot] >= 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == voyageID) {
+                return records[slot];
+            }
+        }
+        return -1;
+    }
+
+    private void put(int voyageID, int record) {
+        int mask = keys.length - 1;
+        int slot = slotOf(voyageID);
+        while (records[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = voyageID;
+        records[slot] = record;
+        if (++size > (keys.length >> 1) + (keys.length >> 2)) { //Keeps the load factor under 0.75.
+            int[] oldKeys = keys;
+            int[] oldRecords = records;
+            keys = new int[oldKeys.length << 1];
+            records = emptySlots(oldKeys.length << 1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldRecords[i] >= 0) {
+                    put(oldKeys[i], oldRecords[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes an ID from the table, shifting the following entries of its probe chain back.
+     */
+    private void delete(int voyageID) {
+        int mask = keys.length - 1;
+        int hole = slotOf(voyageID);
+        while (keys[hole] != voyageID || records[hole] < 0) {
+            hole = (hole + 1) & mask;
+        }
+        for (int next = (hole + 1) & mask; records[next] >= 0; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                records[hole] = records[next];
+                hole = next;
+            }
+        }
+        records[hole] = -1;
+        size--;
+    }
+
+    private static int[] emptySlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+}
@@ -1,13 +1,9 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * Represents a Standard voyage.
  */
 public class Standard extends Voyage {
     private float refundCut;
-    private ArrayList<String> numberOfRows;
+    private SeatMap seatMap;
 
     /**
      * Constructs a Standard voyage with the given parameters.
@@ -20,14 +16,42 @@ public class Standard extends Voyage {
      * @param refundCut  The percentage of refund cut for the voyage.
      */
     public Standard(int voyageID, String fromWhere, String toWhere, float seatFee, int row, float refundCut) {
+        this(voyageID, fromWhere, toWhere, seatFee, row, refundCut, SeatMap.create(row * 4));
+    }
+
+    /**
+     * Constructs a Standard voyage whose seats are kept in the given seat map.
+     *
+     * @param voyageID   The ID of the voyage.
+     * @param fromWhere  The departure location of the voyage.
+     * @param toWhere    The destination of the voyage.
+     * @param seatFee    The fee for each seat on the voyage.
+     * @param row        The number of rows in the standard voyage.
+     * @param refundCut  The percentage of refund cut for the voyage.
+     * @param seatMap    The seat map holding row * 4 seats.
+     */
+    public Standard(int voyageID, String fromWhere, String toWhere, float seatFee, int row, float refundCut,
+                    SeatMap seatMap) {
         super(voyageID, fromWhere, toWhere, seatFee, row);
         this.refundCut = refundCut;
-        this.numberOfRows = new ArrayList<>(Collections.nCopies(row * 4, "*"));
+        this.seatMap = seatMap;
+        long price = Money.fromLira(seatFee);
+        setPriceTable(new long[]{price}, new long[]{Money.percentOf(price, 100 - refundCut)});
     }
 
     @Override
-    public List<String> getNumberOfSeats() {
-        return numberOfRows;
+    public SeatMap getSeatMap() {
+        return seatMap;
+    }
+
+    @Override
+    public int getSeatsPerRow() {
+        return 4;
+    }
+
+    @Override
+    public int getAisleIndex() {
+        return 1;
     }
 
     @Override
@@ -44,4 +68,14 @@ public class Standard extends Voyage {
     public float getRefundCut(float seatFee) {
         return ((100 - refundCut) * seatFee) / 100;
     }
+
+    @Override
+    public String getTypeName() {
+        return "Standard";
+    }
+
+    @Override
+    public float getRefundCutPercentage() {
+        return refundCut;
+    }
 }
\ No newline at end of file
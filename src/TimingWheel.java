@@ -0,0 +1,231 @@
+import java.util.function.Consumer;
+
+/**
+ * TimingWheel schedules timeouts on a hierarchical timing wheel. Time is counted in ticks; every level has 64
+ * slots, a slot of level n spanning 64^n ticks, and 11 levels cover every long deadline. A timer is linked into
+ * the slot of the lowest level whose span reaches its deadline, so scheduling and cancelling cost O(1). When time
+ * reaches the start of a higher slot, its timers cascade one level down, at most once per level, so the cost of a
+ * timer stays O(1) amortised however many timers are pending.
+ * <p>
+ * Each level keeps a bitmask of its occupied slots, so advance jumps straight to the next tick that has work
+ * instead of walking idle ticks one by one.
+ * <p>
+ * The wheel is not thread-safe; its owner guards it.
+ *
+ * @param <T> The type of the payload of the timers.
+ */
+public final class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = (Long.SIZE + SLOT_BITS - 1) / SLOT_BITS;
+
+    /**
+     * Timer is a scheduled timeout. It is linked into the slot list it waits in until it expires or is cancelled.
+     */
+    public static final class Timer<T> {
+        private final T payload;
+        private final long deadline;
+        private Timer<T> previous;
+        private Timer<T> next;
+        private int level = -1; //-1 once the timer is no longer scheduled.
+        private int slot;
+
+        private Timer(T payload, long deadline) {
+            this.payload = payload;
+            this.deadline = deadline;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final Timer<T>[][] slots;
+    private final long[] occupied = new long[LEVELS];
+    private long current; //The next tick to process, every earlier tick has been processed.
+    private int size;
+
+    /**
+     * Constructs an empty TimingWheel.
+     *
+     * @param start The first tick the wheel processes.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long start) {
+        slots = new Timer[LEVELS][SLOTS];
+        current = start;
+    }
+
+    /**
+     * Schedules a timeout. A deadline that has already passed expires at the next advance that moves the time forward.
+     *
+     * @param payload  The payload handed back when the timer expires.
+     * @param deadline The tick at which the timer expires.
+     * @return The timer, which can be cancelled.
+     */
+    public Timer<T> schedule(T payload, long deadline) {
+        Timer<T> timer = new Timer<>(payload, deadline);
+        link(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer that has not expired yet.
+     *
+     * @param timer The timer.
+     * @return True if the timer was pending, false if it had already expired or been cancelled.
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (timer.level < 0) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the time and expires every timer whose deadline is at or before the given tick, in order of their
+     * deadlines.
+     *
+     * @param now     The current tick. Time never goes back, an earlier tick is ignored.
+     * @param expired Receives the payload of every expired timer.
+     * @return The number of expired timers.
+     */
+    public int advance(long now, Consumer<T> expired) {
+        int count = 0;
+        while (current <= now) {
+            long tick = size == 0 ? now + 1 : nextEvent();
+            if (tick > now) {
+                current = now + 1;
+                break;
+            }
+            //Higher levels cascade first, as their timers may land in a lower slot that is due at the same tick.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = level * SLOT_BITS;
+                if ((tick & ((1L << shift) - 1)) == 0) {
+                    cascade(level, (int) (tick >>> shift) & SLOT_MASK, tick);
+                }
+            }
+            current = tick;
+            int slot = (int) tick & SLOT_MASK;
+            Timer<T> timer;
+            while ((timer = slots[0][slot]) != null) {
+                unlink(timer);
+                size--;
+                count++;
+                expired.accept(timer.payload);
+            }
+            current = tick + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of pending timers.
+     *
+     * @return The number of timers that have neither expired nor been cancelled.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the tick of the earliest occupied slot, when advance next has work to do. No timer expires before it,
+     * though the work due then may only be moving timers down a level.
+     *
+     * @return The tick, Long.MAX_VALUE if no timer is pending.
+     */
+    public long nextDeadline() {
+        return size == 0 ? Long.MAX_VALUE : nextEvent();
+    }
+
+    /**
+     * Returns the earliest tick at or after the current one at which a slot is due: a level 0 slot expires, or a
+     * higher slot cascades.
+     */
+    private long nextEvent() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (occupied[level] == 0) {
+                continue;
+            }
+            int shift = level * SLOT_BITS;
+            int digit = (int) (current >>> shift) & SLOT_MASK;
+            //The slot of the current tick is still due if the current tick is where it starts, which is always
+            //the case at level 0; otherwise only the later slots of the level are.
+            boolean atStart = (current & ((1L << shift) - 1)) == 0;
+            long later = occupied[level] & (atStart ? -1L << digit : digit == SLOT_MASK ? 0 : -1L << (digit + 1));
+            if (later == 0) {
+                continue;
+            }
+            long base = shift + SLOT_BITS >= Long.SIZE ? 0 : current >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+            long tick = base + ((long) Long.numberOfTrailingZeros(later) << shift);
+            next = Math.min(next, Math.max(tick, current));
+        }
+        return next;
+    }
+
+    /**
+     * Moves the timers of a higher slot down to the levels their deadlines now belong to.
+     */
+    private void cascade(int level, int slot, long tick) {
+        Timer<T> timer = slots[level][slot];
+        if (timer == null) {
+            return;
+        }
+        slots[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        long saved = current;
+        current = tick;
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            link(timer);
+            timer = next;
+        }
+        current = saved;
+    }
+
+    /**
+     * Links a timer into the slot of the lowest level whose span from the current tick reaches its deadline.
+     */
+    private void link(Timer<T> timer) {
+        long deadline = Math.max(timer.deadline, current);
+        long difference = deadline ^ current;
+        int level = difference == 0 ? 0 : (Long.SIZE - 1 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+        int slot = (int) (deadline >>> (level * SLOT_BITS)) & SLOT_MASK;
+        Timer<T> head = slots[level][slot];
+        timer.previous = null;
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        }
+        slots[level][slot] = timer;
+        occupied[level] |= 1L << slot;
+        timer.level = level;
+        timer.slot = slot;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.level][timer.slot] = timer.next;
+            if (timer.next == null) {
+                occupied[timer.level] &= ~(1L << timer.slot);
+            }
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.level = -1;
+    }
+}
@@ -1,15 +1,45 @@
-import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Voyage class represents a voyage with its properties and methods for managing voyage-related operations.
  */
 public class Voyage {
+    private static final AtomicLongFieldUpdater<Voyage> REVENUE =
+            AtomicLongFieldUpdater.newUpdater(Voyage.class, "revenueMicros");
+    private static final AtomicLongFieldUpdater<Voyage> REFUNDS_PAID =
+            AtomicLongFieldUpdater.newUpdater(Voyage.class, "refundsPaid");
+    private static final AtomicIntegerFieldUpdater<Voyage> VERSION =
+            AtomicIntegerFieldUpdater.newUpdater(Voyage.class, "version");
+    private static final AtomicIntegerFieldUpdater<Voyage> SEATS_SOLD =
+            AtomicIntegerFieldUpdater.newUpdater(Voyage.class, "seatsSold");
+    private static final AtomicIntegerFieldUpdater<Voyage> PREMIUM_SEATS_SOLD =
+            AtomicIntegerFieldUpdater.newUpdater(Voyage.class, "premiumSeatsSold");
+    private static final AtomicLongFieldUpdater<Voyage> SOLD_VALUE =
+            AtomicLongFieldUpdater.newUpdater(Voyage.class, "soldValue");
+    //Marks the seats countSeats has met, one bit per seat like the seat maps, cleared again after every count.
+    private static final ThreadLocal<long[]> SEAT_MARKS = ThreadLocal.withInitial(() -> new long[1]);
+
     private int voyageID;
     private String fromWhere;
     private String toWhere;
     private float seatFee;
-    private float revenue;
+    private volatile long revenueMicros; //Revenue in millionths of a lira, lock-free sales add to it atomically.
+    private volatile long refundsPaid; //Paid back for refunds and the cancellation, in millionths of a lira.
+    private long[] seatPrices; //Price of a seat by seat class, see Money.
+    private long[] seatRefunds; //Refund of a seat by seat class, see Money.
     private int row;
+    private volatile int version;
+    private volatile boolean cancelled;
+    private volatile boolean exclusive; //A change under the voyage lock needs the lock-free sales kept out.
+    private volatile int seatsSold;
+    private volatile int premiumSeatsSold;
+    private volatile long soldValue; //Price paid for the seats sold now, in millionths of a lira, see Money.
+    private SalesTally routeTally;
+    private byte[] renderedBlock;
+    private int renderedVersion;
+    private VoyageStore store; //The store the voyage is a view of, null for voyages on the heap.
+    private int storeRecord;
 
     public Voyage() {
     }
@@ -29,201 +59,398 @@ public class Voyage {
         this.toWhere = toWhere;
         this.seatFee = seatFee;
         this.row = row;
+        setPriceTable(new long[]{Money.fromLira(seatFee)}, new long[]{0});
     }
 
     /**
      * Reads and processes input lines to execute commands related to voyages.
      *
      * @param boxOffice   The BoxOffice object managing voyage operations.
-     * @param voyageList  The list of voyages to operate on.
-     * @param lines       The array of input lines containing commands.
-     */
-    public void inputReader(BoxOffice boxOffice, List<Voyage> voyageList, String[] lines){
-        //The program reads inputs line by line.
-        int i = 0;
-        boolean lastLine = false;
-        for (String line : lines) {
-            i++;
-            if (i == lines.length)
-                lastLine = true;
-            FileOutput.writeToFile("COMMAND: " + line,true,true);
-            String[] infos = line.split("\t");
-            String lineType = infos[0];
-            try {
-                //It determines the methods to be executed based on the types of commands.
-                switch (lineType) {
-                    case "INIT_VOYAGE":
-                        //If any errors exist, it catches them; otherwise, it performs the initialization voyage operation.
-                        try {
-                            int voyageID = Integer.parseInt(infos[2]);
-                            if (voyageID < 0){
-                                FileOutput.writeToFile("ERROR: " + voyageID + " is not a positive integer, ID of a voyage must be a positive integer!",true,true);
-                                break;
-                            }
-                            try {
-                                //If the voyage ID already exists, it throws an error.
-                                for (Voyage voyage : voyageList){
-                                    if (voyage.getVoyageID() == voyageID){
-                                        FileOutput.writeToFile("ERROR: There is already a voyage with ID of " + voyageID + "!",true,true);
-                                        throw new RuntimeException();
-                                    }
-                                }
-                            }catch (RuntimeException e){
-                                break;
-                            }
-                            String fromWhere = infos[3];
-                            String toWhere = infos[4];
-                            int row = Integer.parseInt(infos[5]);
-                            if (row < 0){
-                                FileOutput.writeToFile("ERROR: " + row + " is not a positive integer, number of seat rows of a voyage must be a positive integer!",true,true);
-                                break;
-                            }
-                            float seatFee = Float.parseFloat(infos[6]);
-                            if (seatFee < 0){
-                                FileOutput.writeToFile("ERROR: " + BookingSystem.formatNumber(seatFee) + " is not a positive number, price must be a positive number!",true,true);
-                                break;
-                            }
-                            float premiumFee = 0, refundCut = 0;
-                            //If they exist, it reads the premium fee and refund cut values.
-                            if (infos.length > 8) {
-                                premiumFee = Float.parseFloat(infos[8]);
-                                if (premiumFee < 0){
-                                    FileOutput.writeToFile("ERROR: " + BookingSystem.formatNumber(premiumFee) + " is not a non-negative integer, premium fee must be a non-negative integer!",true,true);
-                                    break;
-                                }
-                                refundCut = Float.parseFloat(infos[7]);
-                                if (refundCut < 0 || refundCut > 100){
-                                    FileOutput.writeToFile("ERROR: " + BookingSystem.formatNumber(refundCut) + " is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!",true,true);
-                                    break;
-                                }
-                            } else if (infos.length > 7) {
-                                refundCut = Float.parseFloat(infos[7]);
-                                if (refundCut < 0 || refundCut > 100){
-                                    FileOutput.writeToFile("ERROR: " + BookingSystem.formatNumber(refundCut) + " is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!",true,true);
-                                    break;
-                                }                            }
-                            boxOffice.initVoyage(voyageID, fromWhere, toWhere, seatFee, row, refundCut, premiumFee, infos, voyageList);
-                            break;
-                        }catch (ArrayIndexOutOfBoundsException e){
-                            FileOutput.writeToFile("ERROR: Erroneous usage of \"INIT_VOYAGEf\" command!",true,true);
-                            break;
-                        }
-                    case "Z_REPORT":
-                        //If any errors exist, it catches them; otherwise, it performs the Z_REPORT operation.
-                        try {
-                            try {
-                                if (infos.length > 1)
-                                    throw new ArrayIndexOutOfBoundsException();
-                                FileOutput.writeToFile("Z Report:\n----------------",true,true);
-                                boxOffice.zReport(voyageList, lastLine);
-                                break;
-                            }catch (ArrayIndexOutOfBoundsException e){
-                                FileOutput.writeToFile("ERROR: Erroneous usage of \"Z_REPORT\" command!",true,true);
-                                break;
-                            }
-                        }catch (NullPointerException e){
-                            break;
-                        }
-                    case "SELL_TICKET":
-                        //If any errors exist, it catches them; otherwise, it performs the SELL_TICKET operation.
-                        try {
-                            if (infos.length != 3) {
-                                throw new ArrayIndexOutOfBoundsException();
-                            }
-                            String seats = infos[2];
-                            boolean found = false;
-                            voyageID = Integer.parseInt(infos[1]);
-                            for (Voyage voyage : voyageList){
-                                if (voyage.getVoyageID() == voyageID){
-                                    found = true;
-                                }
-                            }
-                            if (!found){
-                                FileOutput.writeToFile("ERROR: There is no voyage with ID of " + voyageID + "!",true,true);
-                                break;
-                            }
-                            boxOffice.sellTicket(voyageList, voyageID, seats);
-                            break;
-                        }catch (ArrayIndexOutOfBoundsException e) {
-                            FileOutput.writeToFile("ERROR: Erroneous usage of \"SELL_TICKET\" command!", true, true);
-                            break;
-                        }
-                    case "CANCEL_VOYAGE":
-                        //If any errors exist, it catches them; otherwise, it performs the CANCEL_VOYAGE operation.
-                        try {
-                            boolean found = false;
-                            voyageID = Integer.parseInt(infos[1]);
-                            if (infos.length > 2)
-                                throw new ArrayIndexOutOfBoundsException();
-                            if (voyageID < 0){
-                                FileOutput.writeToFile("ERROR: " + voyageID  +" is not a positive integer, ID of a voyage must be a positive integer!",true,true);
-                                break;
-                            }
-
-                            for (Voyage voyage : voyageList){
-                                if (voyage.getVoyageID() == voyageID){
-                                    found = true;
-                                }
-                            }
-                            if (!found){
-                                FileOutput.writeToFile("ERROR: There is no voyage with ID of " + voyageID + "!",true,true);
-                                break;
-                            }
-                            boxOffice.cancelVoyage(voyageList, voyageID);
-                            break;
-                        }catch (ArrayIndexOutOfBoundsException e){
-                            FileOutput.writeToFile("ERROR: Erroneous usage of \"CANCEL_VOYAGE\" command!", true, true);
-                            break;
-                        }
-                    case "PRINT_VOYAGE":
-                        //If any errors exist, it catches them; otherwise, it performs the PRINT_VOYAGE operation.
-                        boolean found = false;
-                        try {
-                            voyageID = Integer.parseInt(infos[1]);
-                            if (voyageID < 0){
-                                FileOutput.writeToFile("ERROR: " + voyageID + " is not a positive integer, ID of a voyage must be a positive integer!",true,true);
-                                break;
-                            }
-                            for (Voyage voyage : voyageList) {
-                                if (voyage.getVoyageID() == voyageID) {
-                                    found = true;
-                                    boxOffice.voyagePrinter(voyageID, voyage);
-                                }
-                            }
-                            if (!found){
-                                FileOutput.writeToFile("ERROR: There is no voyage with ID of " + voyageID + "!",true,true);
-                            }
-                            break;
-                        }catch (ArrayIndexOutOfBoundsException e){
-                            FileOutput.writeToFile("ERROR: Erroneous usage of \"PRINT_VOYAGE\" command!", true, true);
-                            break;
-                        }
-                    case "REFUND_TICKET":
-                        //If any errors exist, it catches them; otherwise, it performs the REFUND_TICKET operation.
-                        try {
-                            voyageID = Integer.parseInt(infos[1]);
-                            String seats = infos[2];
-                            boxOffice.refundTicket(voyageList, voyageID, seats);
-                            break;
-                        }catch (ArrayIndexOutOfBoundsException e) {
-                                FileOutput.writeToFile("ERROR: Erroneous usage of \"REFUND_TICKET\" command!", true, true);
-                                break;
-                            }
-                    default:
-                        //If none of the commands are suitable, it throws an error.
-                        throw new NullPointerException() ;
-                }
-            }catch (NullPointerException e){
-                FileOutput.writeToFile("ERROR: There is no command namely " + lineType + "!",true,true);
-            }
+     * @param voyages     The registry of voyages to operate on.
+     * @param lines       The reader streaming the input lines containing commands.
+     */
+    public void inputReader(BoxOffice boxOffice, VoyageRegistry voyages, CommandReader lines){
+        CommandDispatcher dispatcher = new CommandDispatcher(boxOffice, voyages);
+        //The program reads inputs line by line, the lookahead of the reader tells whether this is the last line.
+        while (lines.hasNext()) {
+            String line = lines.next();
+            dispatcher.execute(line, !lines.hasNext());
         }
     }
+
     public float getRevenue() {
-        return revenue;
+        return revenueMicros / 1e6f;
     }
 
     public void setRevenue(float revenue) {
-        this.revenue += revenue;
+        addRevenue(Money.fromLira(revenue));
+    }
+
+    /**
+     * Returns the revenue of the voyage, what it keeps of its sales.
+     *
+     * @return The net revenue, the gross sales less the refunds paid, in millionths of a lira.
+     */
+    public long getRevenueMicros() {
+        return revenueMicros;
+    }
+
+    /**
+     * Returns the price of every seat sold on the voyage, refunded ones included.
+     *
+     * @return The gross sales in millionths of a lira.
+     */
+    public long getGrossSales() {
+        return revenueMicros + refundsPaid;
+    }
+
+    /**
+     * Returns the amount paid back for the refunds of the voyage and its cancellation.
+     *
+     * @return The refunds in millionths of a lira.
+     */
+    public long getRefundsPaid() {
+        return refundsPaid;
+    }
+
+    /**
+     * Adds to the revenue of the voyage and marks it dirty.
+     *
+     * @param amount The amount to add in millionths of a lira, the price of a sale.
+     */
+    public void addRevenue(long amount) {
+        long revenue = REVENUE.addAndGet(this, amount);
+        if (store != null) {
+            store.storeRevenue(storeRecord, revenue);
+        }
+        markDirty();
+    }
+
+    /**
+     * Pays back an amount out of the revenue of the voyage, counting it as refunded, and marks the voyage dirty.
+     *
+     * @param amount The amount paid back in millionths of a lira.
+     */
+    public void addRefund(long amount) {
+        long refunds = REFUNDS_PAID.addAndGet(this, amount);
+        if (store != null) {
+            store.storeRefunds(storeRecord, refunds);
+        }
+        addRevenue(-amount);
+    }
+
+    /**
+     * Sets the refunds paid of a voyage read back from a store.
+     */
+    void setRefundsPaid(long amount) {
+        refundsPaid = amount;
+    }
+
+    /**
+     * Returns the number of seats sold now, kept as seats are sold and refunded instead of counted from the seats.
+     *
+     * @return The number of sold seats.
+     */
+    public int getSeatsSold() {
+        return seatsSold;
+    }
+
+    public int getPremiumSeatsSold() {
+        return premiumSeatsSold;
+    }
+
+    /**
+     * Returns the price paid for the seats sold now, which a cancellation pays back in full.
+     *
+     * @return The price of the sold seats in millionths of a lira.
+     */
+    public long getSoldValue() {
+        return soldValue;
+    }
+
+    /**
+     * Adds to the sales counters of the voyage, the counterpart of addRevenue for the seats.
+     *
+     * @param seats        The number of seats sold, negative for refunds.
+     * @param premiumSeats How many of them are premium seats, negative for refunds.
+     * @param value        The price of the seats in millionths of a lira, negative for refunds.
+     */
+    public void addSales(int seats, int premiumSeats, long value) {
+        int sold = SEATS_SOLD.addAndGet(this, seats);
+        int premiumSold = PREMIUM_SEATS_SOLD.addAndGet(this, premiumSeats);
+        long paid = SOLD_VALUE.addAndGet(this, value);
+        if (store != null) {
+            store.storeSales(storeRecord, sold, premiumSold, paid);
+        }
+    }
+
+    /**
+     * Adds the seats of a sale to the sales counters, or takes the seats of a refund out. A seat listed twice
+     * changes hands once, so it is counted once: the seats are marked in a bitset laid out like the seat map,
+     * which finds the repeated ones in a single pass.
+     *
+     * @param seats The seat numbers, they must exist.
+     * @param count The number of seat numbers in the array.
+     * @param sign  1 for a sale, -1 for a refund.
+     * @return The number of distinct seats and how many of them are premium seats, read with seatsOf and
+     *         premiumSeatsOf.
+     */
+    public long countSeats(int[] seats, int count, int sign) {
+        long[] marks = null;
+        if (count > 1) {
+            marks = SEAT_MARKS.get();
+            int words = getSeatMap().wordCount();
+            if (marks.length < words) {
+                marks = new long[words];
+                SEAT_MARKS.set(marks);
+            }
+        }
+        int sold = 0;
+        int premiumSold = 0;
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            int seat = seats[i];
+            if (marks != null) {
+                int index = seat - 1;
+                long bit = 1L << index;
+                if ((marks[index >>> SeatMap.WORD_SHIFT] & bit) != 0) {
+                    continue;
+                }
+                marks[index >>> SeatMap.WORD_SHIFT] |= bit;
+            }
+            sold++;
+            if (getSeatClass(seat) != 0) { //Seat class 0 is the regular class of every voyage type.
+                premiumSold++;
+            }
+            value += getSeatPrice(seat);
+        }
+        if (marks != null) {
+            for (int i = 0; i < count; i++) {
+                marks[(seats[i] - 1) >>> SeatMap.WORD_SHIFT] = 0;
+            }
+        }
+        addSales(sign * sold, sign * premiumSold, sign * value);
+        return (long) sold << 32 | premiumSold;
+    }
+
+    /**
+     * Returns the number of distinct seats in the result of countSeats.
+     *
+     * @param counted The result of countSeats.
+     * @return The number of seats counted once each.
+     */
+    public static int seatsOf(long counted) {
+        return (int) (counted >>> 32);
+    }
+
+    /**
+     * Returns the number of distinct premium seats in the result of countSeats.
+     *
+     * @param counted The result of countSeats.
+     * @return The number of premium seats counted once each.
+     */
+    public static int premiumSeatsOf(long counted) {
+        return (int) counted;
+    }
+
+    /**
+     * Sets the sales counters of a voyage read back from a store.
+     */
+    void setSales(int seats, int premiumSeats, long value) {
+        seatsSold = seats;
+        premiumSeatsSold = premiumSeats;
+        soldValue = value;
+    }
+
+    /**
+     * Counts the sales counters from the seats, for a voyage whose seats were restored without them.
+     */
+    void recountSales() {
+        SeatMap seatMap = getSeatMap();
+        int seats = 0;
+        int premiumSeats = 0;
+        long value = 0;
+        for (int seat = seatMap.nextSold(1); seat != 0; seat = seatMap.nextSold(seat + 1)) {
+            seats++;
+            if (getSeatClass(seat) != 0) { //Seat class 0 is the regular class of every voyage type.
+                premiumSeats++;
+            }
+            value += getSeatPrice(seat);
+        }
+        setSales(seats, premiumSeats, value);
+    }
+
+    /**
+     * Returns the sales tally of the route of the voyage, cached by VoyageRegistry.routeTally.
+     */
+    SalesTally getRouteTally() {
+        return routeTally;
+    }
+
+    void setRouteTally(SalesTally routeTally) {
+        this.routeTally = routeTally;
+    }
+
+    /**
+     * Ties the voyage to its record in a store, so every later revenue change is written to the record as well.
+     *
+     * @param store  The store the voyage was taken from.
+     * @param record The index of the record of the voyage.
+     */
+    void bindStore(VoyageStore store, int record) {
+        this.store = store;
+        this.storeRecord = record;
+    }
+
+    /**
+     * Tells whether the voyage is a view whose record has been given to another voyage since the view was taken.
+     *
+     * @return True if the view must not be used any more.
+     */
+    public boolean isStale() {
+        return store != null && !store.holds(storeRecord, voyageID);
+    }
+
+    /**
+     * Replaces the city names of the voyage with their interned instances.
+     *
+     * @param cities The table the names are interned in.
+     */
+    void internCities(CityTable cities) {
+        fromWhere = cities.intern(fromWhere);
+        toWhere = cities.intern(toWhere);
+    }
+
+    /**
+     * Sets the price and refund of every seat class, computed once when the voyage is created.
+     *
+     * @param seatPrices  The price of a seat in millionths of a lira, indexed by seat class.
+     * @param seatRefunds The refund of a seat in millionths of a lira, indexed by seat class.
+     */
+    protected void setPriceTable(long[] seatPrices, long[] seatRefunds) {
+        this.seatPrices = seatPrices;
+        this.seatRefunds = seatRefunds;
+    }
+
+    /**
+     * Returns the class of a seat, which selects its entry in the price table.
+     *
+     * @param seatNumber The seat number.
+     * @return The seat class.
+     */
+    protected int getSeatClass(int seatNumber) {
+        return 0;
+    }
+
+    /**
+     * Returns the price of a seat from the price table.
+     *
+     * @param seatNumber The seat number.
+     * @return The price in millionths of a lira.
+     */
+    public long getSeatPrice(int seatNumber) {
+        return seatPrices[getSeatClass(seatNumber)];
+    }
+
+    /**
+     * Returns the amount refunded for a seat from the price table.
+     *
+     * @param seatNumber The seat number.
+     * @return The refund in millionths of a lira.
+     */
+    public long getSeatRefund(int seatNumber) {
+        return seatRefunds[getSeatClass(seatNumber)];
+    }
+
+    /**
+     * Returns the price of seats as the message of a sale prints it: the float fees summed in the order of the
+     * command, as they were before money was kept in millionths of a lira. "%.2f" of this sum prints the kurus the
+     * messages always have, where the exact price can round the other way.
+     *
+     * @param seats The seat numbers, they must exist.
+     * @param count The number of seat numbers in the array.
+     * @return The printed price in lira.
+     */
+    public float getPrintedPrice(int[] seats, int count) {
+        float amount = 0;
+        for (int i = 0; i < count; i++) {
+            amount += getSeatFee(seats[i]);
+        }
+        return amount;
+    }
+
+    /**
+     * Returns the refund of seats as the message of a refund prints it, the counterpart of getPrintedPrice.
+     *
+     * @param seats The seat numbers, they must exist.
+     * @param count The number of seat numbers in the array.
+     * @return The printed refund in lira.
+     */
+    public float getPrintedRefund(int[] seats, int count) {
+        float amount = 0;
+        for (int i = 0; i < count; i++) {
+            amount += getRefundCut(getSeatFee(seats[i]));
+        }
+        return amount;
+    }
+
+    /**
+     * Returns the version of the voyage, which changes every time the voyage is marked dirty.
+     *
+     * @return The current version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the rendered details of the voyage cached by the last print.
+     *
+     * @return The cached block, null if the voyage has changed since it was rendered.
+     */
+    public byte[] getRenderedBlock() {
+        return renderedBlock != null && renderedVersion == version ? renderedBlock : null;
+    }
+
+    /**
+     * Caches the rendered details of the voyage.
+     *
+     * @param renderedBlock The rendered block.
+     * @param version       The version of the voyage read before rendering started.
+     */
+    public void setRenderedBlock(byte[] renderedBlock, int version) {
+        this.renderedBlock = renderedBlock;
+        this.renderedVersion = version;
+    }
+
+    /**
+     * Marks the cached rendering of the voyage as outdated.
+     */
+    public void markDirty() {
+        VERSION.incrementAndGet(this);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Marks the voyage as cancelled, so lock-free sales and refunds that still hold it take the voyage lock.
+     */
+    public void setCancelled() {
+        cancelled = true;
+    }
+
+    boolean isExclusive() {
+        return exclusive;
+    }
+
+    /**
+     * Marks the voyage while a change under its lock must not be seen half done, so the lock-free sales and refunds
+     * that start meanwhile take the voyage lock.
+     */
+    void setExclusive(boolean exclusive) {
+        this.exclusive = exclusive;
     }
 
     public float getSeatFee(int seatNumber) {
@@ -233,9 +460,58 @@ public class Voyage {
     public int getVoyageID() {
         return voyageID;
     }
-    public List<String> getNumberOfSeats() {
+
+    /**
+     * Returns the type of the voyage as it is written in INIT_VOYAGE.
+     *
+     * @return The type name, null for a voyage without a type.
+     */
+    public String getTypeName() {
+        return null;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Returns the fee of a regular seat, as it was given when the voyage was initialized.
+     *
+     * @return The regular seat fee.
+     */
+    public float getRegularSeatFee() {
+        return seatFee;
+    }
+
+    /**
+     * Returns the refund cut percentage the voyage was initialized with.
+     *
+     * @return The refund cut, 0 for voyages without refunds.
+     */
+    public float getRefundCutPercentage() {
+        return 0;
+    }
+    public SeatMap getSeatMap() {
         return null;
     }
+
+    /**
+     * Returns how many seats a row of the voyage has.
+     *
+     * @return The number of seats per row.
+     */
+    public int getSeatsPerRow() {
+        return 0;
+    }
+
+    /**
+     * Returns the position in a row after which the aisle is printed.
+     *
+     * @return The zero-based position of the seat before the aisle, -1 if the voyage has no aisle.
+     */
+    public int getAisleIndex() {
+        return -1;
+    }
     public float getPremiumFee() {
         return 0;
     }
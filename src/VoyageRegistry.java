@@ -0,0 +1,684 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * VoyageRegistry indexes the active voyages by their IDs. It is an open addressing hash table keyed by
+ * primitive ints, so looking a voyage up costs O(1) and never boxes the ID.
+ * The IDs are also kept in a sorted tree as voyages are added and removed, so iterating the registry visits
+ * the voyages in ascending order of their IDs without sorting.
+ * The registry is safe to share between threads. Lookups are optimistic and do not take a lock unless they
+ * race with an addition or a removal.
+ * A registry may be backed by a MappedCatalog. Its voyages are materialized into the table when they are first
+ * looked up, while the voyages added later live on the heap only and are tracked in the sorted tree.
+ * The city names of added voyages are interned, and the voyages are indexed by their route as well: a sorted set
+ * of IDs per pair of city IDs, so the voyages of a route are listed in O(matches) whatever the size of the registry.
+ * Routes are keyed by primitive longs in open addressing tables as well, so a route lookup never boxes its key.
+ * A registry may keep its voyages in a SlabStore instead of the table. Lookups then return new views of the
+ * records, and only the IDs and routes stay on the heap.
+ */
+public class VoyageRegistry implements Iterable<Voyage> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private final StampedLock lock = new StampedLock();
+    private final IntTreeSet order = new IntTreeSet();
+    private final CityTable cities = new CityTable();
+    private final RouteMap<IntTreeSet> routes = new RouteMap<>();
+    private final RouteMap<SalesTally> routeTallies = new RouteMap<>();
+    private volatile Table table = new Table(DEFAULT_CAPACITY);
+    private int size;
+    private MappedCatalog catalog;
+    private SlabStore store;
+
+    /**
+     * Table holds the slots of the hash index. It is replaced as a whole when the index grows,
+     * so a reader always sees arrays and a mask that belong together.
+     */
+    private static final class Table {
+        final int[] keys;
+        final Voyage[] values;
+        final int mask;
+        final int shift;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Voyage[capacity];
+            mask = capacity - 1;
+            shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        }
+
+        int hash(int voyageID) {
+            return (voyageID * GOLDEN_RATIO) >>> shift;
+        }
+
+        /**
+         * Looks the voyage up. The probe is bounded by the capacity, so it ends even if a writer is changing the table.
+         */
+        Voyage find(int voyageID) {
+            int slot = hash(voyageID);
+            for (int probes = 0; probes <= mask; probes++) {
+                Voyage value = values[slot];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[slot] == voyageID) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * RouteMap maps route keys to values by open addressing on the primitive keys. A slot holds an immutable entry,
+     * so a lookup without a lock sees either a whole entry or none: a miss that races with a writer is repeated by
+     * the caller under the lock that guards the writers. Removals shift entries back and must not race with such
+     * lookups.
+     */
+    private static final class RouteMap<V> {
+        private static final long GOLDEN_RATIO_64 = 0x9E3779B97F4A7C15L;
+
+        private static final class Entry<V> {
+            final long key;
+            final V value;
+
+            Entry(long key, V value) {
+                this.key = key;
+                this.value = value;
+            }
+        }
+
+        private volatile Entry<V>[] slots = newSlots(DEFAULT_CAPACITY);
+        private int size;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static <V> Entry<V>[] newSlots(int capacity) {
+            return (Entry<V>[]) new Entry[capacity];
+        }
+
+        private static int slotOf(long key, int capacity) {
+            return (int) ((key * GOLDEN_RATIO_64) >>> (Long.numberOfLeadingZeros(capacity) + 1));
+        }
+
+        V get(long key) {
+            Entry<V>[] current = slots;
+            int mask = current.length - 1;
+            for (int slot = slotOf(key, current.length); ; slot = (slot + 1) & mask) {
+                Entry<V> entry = current[slot];
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.key == key) {
+                    return entry.value;
+                }
+            }
+        }
+
+        /**
+         * Maps a key that is not in the map yet.
+         */
+        void put(long key, V value) {
+            Entry<V>[] current = slots;
+            if (size + 1 > (current.length >> 1) + (current.length >> 2)) { //Keeps the load factor under 0.75.
+                Entry<V>[] grown = newSlots(current.length << 1);
+                for (Entry<V> entry : current) {
+                    if (entry != null) {
+                        link(grown, entry);
+                    }
+                }
+                current = grown;
+            }
+            link(current, new Entry<>(key, value));
+            slots = current;
+            size++;
+        }
+
+        private static <V> void link(Entry<V>[] slots, Entry<V> entry) {
+            int mask = slots.length - 1;
+            int slot = slotOf(entry.key, slots.length);
+            while (slots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry;
+        }
+
+        void remove(long key) {
+            Entry<V>[] current = slots;
+            int mask = current.length - 1;
+            int slot = slotOf(key, current.length);
+            while (current[slot].key != key) {
+                slot = (slot + 1) & mask;
+            }
+            //Shifts the entries after the slot back, so no probe stops at the hole.
+            for (int next = (slot + 1) & mask; current[next] != null; next = (next + 1) & mask) {
+                int home = slotOf(current[next].key, current.length);
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    current[slot] = current[next];
+                    slot = next;
+                }
+            }
+            current[slot] = null;
+            size--;
+        }
+
+        List<V> values() {
+            List<V> values = new ArrayList<>(size);
+            for (Entry<V> entry : slots) {
+                if (entry != null) {
+                    values.add(entry.value);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Backs the registry by a catalog. It must be set before the registry is used.
+     *
+     * @param catalog The catalog holding the voyages of earlier runs.
+     */
+    public void setCatalog(MappedCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Keeps the voyages in an off-heap store instead of the table. It must be set before the registry is used and
+     * cannot be combined with a catalog.
+     *
+     * @param store The store to keep the voyages in.
+     */
+    public void setStore(SlabStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns the voyage with the given ID.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return The voyage, null if there is no voyage with that ID.
+     */
+    public Voyage get(int voyageID) {
+        if (store != null) {
+            long stamp = lock.readLock();
+            try {
+                return store.get(voyageID);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        long stamp = lock.tryOptimisticRead();
+        Voyage voyage = table.find(voyageID);
+        if (lock.validate(stamp)) {
+            return voyage != null || catalog == null ? voyage : load(voyageID);
+        }
+        //A writer changed the table during the lookup, so it is repeated under the read lock.
+        stamp = lock.readLock();
+        try {
+            voyage = table.find(voyageID);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return voyage != null || catalog == null ? voyage : load(voyageID);
+    }
+
+    /**
+     * Materializes a voyage of the catalog into the table, so later lookups find the same voyage.
+     */
+    private Voyage load(int voyageID) {
+        if (catalog.find(voyageID) < 0) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            Voyage voyage = table.find(voyageID);
+            if (voyage == null) {
+                //The voyage may have been cancelled since the first search, so the record is searched again.
+                int record = catalog.find(voyageID);
+                if (record >= 0) {
+                    voyage = catalog.load(record);
+                    insert(voyage);
+                }
+            }
+            return voyage;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Checks whether a voyage with the given ID exists.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return True if the voyage exists, false otherwise.
+     */
+    public boolean contains(int voyageID) {
+        return get(voyageID) != null;
+    }
+
+    /**
+     * Adds the voyage to the registry unless there is already a voyage with the same ID.
+     *
+     * @param voyage The voyage to add.
+     * @return True if the voyage was added, false if its ID is already taken.
+     */
+    public boolean add(Voyage voyage) {
+        int voyageID = voyage.getVoyageID();
+        long stamp = lock.writeLock();
+        try {
+            if (store != null ? !store.add(voyage) : catalog != null && catalog.find(voyageID) >= 0 || !insert(voyage)) {
+                return false;
+            }
+            order.add(voyageID);
+            voyage.internCities(cities);
+            long route = routeKey(voyage);
+            IntTreeSet routeVoyages = routes.get(route);
+            if (routeVoyages == null) {
+                routeVoyages = new IntTreeSet();
+                routes.put(route, routeVoyages);
+            }
+            routeVoyages.add(voyageID);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Puts the voyage into the table unless its ID is already there. The caller must hold the write lock.
+     */
+    private boolean insert(Voyage voyage) {
+        int voyageID = voyage.getVoyageID();
+        Table current = table;
+        int slot = current.hash(voyageID);
+        while (current.values[slot] != null) {
+            if (current.keys[slot] == voyageID) {
+                return false;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+        current.keys[slot] = voyageID;
+        current.values[slot] = voyage;
+        int capacity = current.keys.length;
+        if (++size > (capacity >> 1) + (capacity >> 2)) { //Keeps the load factor under 0.75.
+            table = rehash(current, capacity << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the voyage with the given ID.
+     *
+     * @param voyageID The ID of the voyage.
+     * @return The removed voyage, null if there is no voyage with that ID.
+     */
+    public Voyage remove(int voyageID) {
+        long stamp = lock.writeLock();
+        try {
+            if (store != null) {
+                Voyage removed = store.remove(voyageID);
+                if (removed != null) {
+                    unindex(removed);
+                }
+                return removed;
+            }
+            Table current = table;
+            int mask = current.mask;
+            int slot = current.hash(voyageID);
+            while (current.values[slot] != null && current.keys[slot] != voyageID) {
+                slot = (slot + 1) & mask;
+            }
+            Voyage removed = current.values[slot];
+            if (removed != null) {
+                //Shifts the following entries of the probe chain back so that lookups never hit a hole.
+                int hole = slot;
+                int next = (hole + 1) & mask;
+                while (current.values[next] != null) {
+                    int home = current.hash(current.keys[next]);
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        current.keys[hole] = current.keys[next];
+                        current.values[hole] = current.values[next];
+                        hole = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                current.values[hole] = null;
+                size--;
+            }
+            int record = catalog == null ? -1 : catalog.find(voyageID);
+            if (record >= 0) {
+                if (removed == null) {
+                    removed = catalog.load(record);
+                }
+                catalog.cancel(record);
+            } else if (removed != null) {
+                unindex(removed);
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes a removed heap voyage out of the ID order and the route index. The caller must hold the write lock.
+     */
+    private void unindex(Voyage voyage) {
+        int voyageID = voyage.getVoyageID();
+        order.remove(voyageID);
+        long route = routeKey(voyage);
+        IntTreeSet routeVoyages = routes.get(route);
+        routeVoyages.remove(voyageID);
+        if (routeVoyages.isEmpty()) {
+            routes.remove(route);
+        }
+    }
+
+    /**
+     * Returns a heap voyage by its ID, a new view of it if the voyages are kept in a store. The caller must hold
+     * the lock.
+     */
+    private Voyage heapVoyage(Table current, int voyageID) {
+        return store != null ? store.get(voyageID) : current.find(voyageID);
+    }
+
+    /**
+     * Returns the voyages from one city to another in ascending order of their IDs, as they are at the time of the
+     * call. Voyages of the catalog that were never looked up are materialized for the result only.
+     *
+     * @param fromWhere The departure city.
+     * @param toWhere   The destination city.
+     * @return The ID-ordered voyages of the route.
+     */
+    public Voyage[] route(String fromWhere, String toWhere) {
+        int from = cities.find(fromWhere);
+        int to = cities.find(toWhere);
+        long stamp = lock.readLock();
+        try {
+            Table current = table;
+            IntTreeSet heap = from < 0 || to < 0 ? null : routes.get(routeKey(from, to));
+            int[] records = catalog == null ? new int[0] : catalog.recordsOn(fromWhere, toWhere);
+            Voyage[] voyages = new Voyage[(heap == null ? 0 : heap.size()) + records.length];
+            IntTreeSet.Cursor cursor = heap == null ? null : heap.cursor();
+            boolean heapLeft = cursor != null && cursor.hasNext();
+            int heapID = heapLeft ? cursor.next() : 0;
+            int found = 0;
+            int next = 0;
+            //Merges the ordered records of the route with its ordered heap voyages, leaving cancelled records out.
+            while (next < records.length || heapLeft) {
+                if (next < records.length && (!heapLeft || catalog.idAt(records[next]) < heapID)) {
+                    int record = records[next++];
+                    if (!catalog.isCancelled(record)) {
+                        Voyage voyage = current.find(catalog.idAt(record));
+                        voyages[found++] = voyage != null ? voyage : catalog.load(record);
+                    }
+                } else {
+                    voyages[found++] = heapVoyage(current, heapID);
+                    heapLeft = cursor.hasNext();
+                    heapID = heapLeft ? cursor.next() : 0;
+                }
+            }
+            return found == voyages.length ? voyages : Arrays.copyOf(voyages, found);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the route key of a heap voyage, whose city names are interned.
+     */
+    private long routeKey(Voyage voyage) {
+        return routeKey(cities.id(voyage.getFromWhere()), cities.id(voyage.getToWhere()));
+    }
+
+    /**
+     * Returns the sales tally of the route of a voyage, created on the first sale of the route. The tally is
+     * cached in the voyage, so a voyage that stays on the heap finds it without a lookup.
+     *
+     * @param voyage The voyage.
+     * @return The tally of the route, which outlives the voyages of the route.
+     */
+    public SalesTally routeTally(Voyage voyage) {
+        SalesTally tally = voyage.getRouteTally();
+        if (tally == null) {
+            long route = routeKey(voyage);
+            tally = routeTallies.get(route);
+            if (tally == null) {
+                synchronized (routeTallies) {
+                    tally = routeTallies.get(route);
+                    if (tally == null) {
+                        tally = new SalesTally(voyage.getFromWhere(), voyage.getToWhere());
+                        routeTallies.put(route, tally);
+                    }
+                }
+            }
+            voyage.setRouteTally(tally);
+        }
+        return tally;
+    }
+
+    /**
+     * Returns the tallies of every route sold on during the run, ordered by departure and then destination city.
+     *
+     * @return The tallies of the routes.
+     */
+    public SalesTally[] routeTallies() {
+        SalesTally[] tallies;
+        synchronized (routeTallies) {
+            tallies = routeTallies.values().toArray(new SalesTally[0]);
+        }
+        Arrays.sort(tallies, (a, b) -> {
+            int order = a.getFromWhere().compareTo(b.getFromWhere());
+            return order != 0 ? order : a.getToWhere().compareTo(b.getToWhere());
+        });
+        return tallies;
+    }
+
+    private static long routeKey(int from, int to) {
+        return (long) from << 32 | to & 0xFFFFFFFFL;
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return order.size() + (catalog == null ? 0 : catalog.liveCount());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Tells whether voyages were added that are not in the backing catalog.
+     *
+     * @return True if any voyage lives on the heap only.
+     */
+    public boolean hasHeapVoyages() {
+        long stamp = lock.readLock();
+        try {
+            return !order.isEmpty();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the voyages in ascending order of their IDs as they are at the time of the call.
+     * Voyages of the catalog that were never looked up are materialized for the snapshot only.
+     *
+     * @return The ID-ordered voyages.
+     */
+    public Voyage[] snapshot() {
+        long stamp = lock.readLock();
+        try {
+            Table current = table;
+            IntTreeSet.Cursor cursor = order.cursor();
+            if (catalog == null) {
+                Voyage[] voyages = new Voyage[order.size()];
+                for (int i = 0; cursor.hasNext(); i++) {
+                    voyages[i] = heapVoyage(current, cursor.next());
+                }
+                return voyages;
+            }
+            //Merges the ordered records of the catalog with the ordered IDs of the heap voyages.
+            Voyage[] voyages = new Voyage[order.size() + catalog.liveCount()];
+            int record = catalog.nextLive(0);
+            boolean heapLeft = cursor.hasNext();
+            int heapID = heapLeft ? cursor.next() : 0;
+            for (int i = 0; i < voyages.length; i++) {
+                if (record >= 0 && (!heapLeft || catalog.idAt(record) < heapID)) {
+                    Voyage voyage = current.find(catalog.idAt(record));
+                    voyages[i] = voyage != null ? voyage : catalog.load(record);
+                    record = catalog.nextLive(record + 1);
+                } else {
+                    voyages[i] = current.find(heapID);
+                    heapLeft = cursor.hasNext();
+                    heapID = heapLeft ? cursor.next() : 0;
+                }
+            }
+            return voyages;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns an iterator visiting the voyages in ascending order of their IDs.
+     * The iterator works on a snapshot, so the registry may change while it is used. With a catalog only the heap
+     * voyages are taken up front; the records are walked as the iterator advances and their voyages are
+     * materialized one at a time, so iterating a huge catalog needs no more memory than a single voyage.
+     *
+     * @return The ID-ordered iterator.
+     */
+    @Override
+    public Iterator<Voyage> iterator() {
+        if (store != null) {
+            return new StoreIterator();
+        }
+        if (catalog == null) {
+            return Arrays.asList(snapshot()).iterator();
+        }
+        long stamp = lock.readLock();
+        try {
+            Table current = table;
+            Voyage[] heap = new Voyage[order.size()];
+            IntTreeSet.Cursor cursor = order.cursor();
+            for (int i = 0; cursor.hasNext(); i++) {
+                heap[i] = current.find(cursor.next());
+            }
+            return new CatalogIterator(heap, catalog.nextLive(0));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * StoreIterator takes the IDs of a store up front and creates the view of each voyage as it advances, so a
+     * report over millions of voyages keeps one view alive at a time. Voyages cancelled since are skipped.
+     */
+    private final class StoreIterator implements Iterator<Voyage> {
+        private final int[] ids;
+        private int index;
+        private Voyage next;
+
+        StoreIterator() {
+            long stamp = lock.readLock();
+            try {
+                ids = new int[order.size()];
+                IntTreeSet.Cursor cursor = order.cursor();
+                for (int i = 0; cursor.hasNext(); i++) {
+                    ids[i] = cursor.next();
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && index < ids.length) {
+                next = get(ids[index++]);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Voyage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Voyage voyage = next;
+            next = null;
+            return voyage;
+        }
+    }
+
+    /**
+     * CatalogIterator merges the heap voyages taken by iterator with the records of the catalog.
+     */
+    private final class CatalogIterator implements Iterator<Voyage> {
+        private final Voyage[] heap;
+        private int heapIndex;
+        private int record;
+
+        CatalogIterator(Voyage[] heap, int record) {
+            this.heap = heap;
+            this.record = record;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return record >= 0 || heapIndex < heap.length;
+        }
+
+        @Override
+        public Voyage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long stamp = lock.readLock();
+            try {
+                if (record >= 0 && (heapIndex == heap.length || catalog.idAt(record) < heap[heapIndex].getVoyageID())) {
+                    Voyage voyage = table.find(catalog.idAt(record));
+                    if (voyage == null) {
+                        voyage = catalog.load(record);
+                    }
+                    record = catalog.nextLive(record + 1);
+                    return voyage;
+                }
+                return heap[heapIndex++];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Copies the voyages of the table into a new table of the given capacity.
+     *
+     * @param current  The table to copy.
+     * @param capacity The new capacity, must be a power of two.
+     * @return The new table.
+     */
+    private static Table rehash(Table current, int capacity) {
+        Table grown = new Table(capacity);
+        for (int i = 0; i < current.values.length; i++) {
+            if (current.values[i] != null) {
+                int slot = grown.hash(current.keys[i]);
+                while (grown.values[slot] != null) {
+                    slot = (slot + 1) & grown.mask;
+                }
+                grown.keys[slot] = current.keys[i];
+                grown.values[slot] = current.values[i];
+            }
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * VoyageStore keeps voyages as records outside the Voyage objects. A voyage taken from a store is a view over its
+ * record: its seat map reads and writes the seat bits of the store, and its revenue and refund changes are written
+ * back.
+ */
+public interface VoyageStore {
+    /**
+     * Writes the revenue of a voyage to its record.
+     *
+     * @param record  The index of the record.
+     * @param revenue The revenue in millionths of a lira.
+     */
+    void storeRevenue(int record, long revenue);
+
+    /**
+     * Writes the refunds paid of a voyage to its record.
+     *
+     * @param record      The index of the record.
+     * @param refundsPaid The refunds paid in millionths of a lira.
+     */
+    void storeRefunds(int record, long refundsPaid);
+
+    /**
+     * Writes the sales counters of a voyage to its record, see Voyage.addSales.
+     *
+     * @param record           The index of the record.
+     * @param seatsSold        The number of sold seats.
+     * @param premiumSeatsSold How many of them are premium seats.
+     * @param soldValue        The price of the sold seats in millionths of a lira.
+     */
+    void storeSales(int record, int seatsSold, int premiumSeatsSold, long soldValue);
+
+    /**
+     * Tells whether a record still holds the given voyage. Stores that reuse the records of cancelled voyages
+     * answer false once the record was given to another voyage.
+     *
+     * @param record   The index of the record.
+     * @param voyageID The ID of the voyage the view was taken for.
+     * @return True if the record still belongs to the voyage.
+     */
+    boolean holds(int record, int voyageID);
+}